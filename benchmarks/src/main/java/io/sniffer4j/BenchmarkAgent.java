@@ -0,0 +1,78 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Sets options and starts {@link LogBroker} in the benchmark JVM, like {@link Premain} does. Each
+ * benchmark JVM is initialized once, so benchmarks with different options MUST be forked.
+ */
+final class BenchmarkAgent {
+
+    private static boolean initialized;
+
+
+    private BenchmarkAgent() {
+    }
+
+
+    /**
+     * @param options Agent arguments, like <code>mode=aggregate,calltree=true</code>
+     */
+    static synchronized void initialize(final String options) {
+        if (initialized) {
+            return;
+        }
+
+        try {
+            final Path directory = Files.createTempDirectory("sniffer4j-benchmarks");
+            final Path logfile = directory.resolve("sniffer4j.log");
+
+            // Deleted in reverse order of registration, after LogBroker is shut down
+            directory.toFile().deleteOnExit();
+            logfile.toFile().deleteOnExit();
+
+            Options.of("logfile").value(logfile.toString());
+        } catch (final IOException cause) {
+            throw new UncheckedIOException(cause);
+        }
+
+        for (final String each : options.split(",")) {
+            if (!each.isEmpty()) {
+                final String[] pair = each.split("=", 2);
+                Options.of(pair[0]).value(pair[1]);
+            }
+        }
+
+        LogBroker.instance().initialize();
+        initialized = true;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sniffer4j.workload.Workload;
+import sniffer4j.workload.Workloads;
+
+
+/**
+ * Measures the cost of the injected probe, by calling methods of {@link Workloads} loaded as it is
+ * and instrumented by {@link Sniffer4jTransformer} in-process.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean  instrumented;
+
+    @Param({ "mode=aggregate", "mode=aggregate,calltree=true", "mode=aggregate,sampling=100", "mode=aggregate,weaver=asm" })
+    public String   options;
+
+    private Workload workload;
+
+    private long     value;
+
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException, IOException, IllegalClassFormatException {
+        // Every method is instrumented regardless of its size
+        BenchmarkAgent.initialize(this.options + ",packages=sniffer4j.workload,minsize=0");
+
+        final Class<?> workloadClass = this.instrumented ? loadInstrumented(Workloads.class) : Workloads.class;
+
+        this.workload = (Workload) workloadClass.getConstructor().newInstance();
+        this.value = System.nanoTime();
+    }
+
+
+    @Benchmark
+    public long tiny() {
+        return this.workload.tiny(this.value);
+    }
+
+
+    @Benchmark
+    public long small() {
+        return this.workload.small(this.value);
+    }
+
+
+    @Benchmark
+    public long medium() {
+        return this.workload.medium(this.value);
+    }
+
+
+    static byte[] bytesOf(final String className, final ClassLoader loader) throws IOException {
+        try (InputStream input = loader.getResourceAsStream(className.replace('.', '/') + ".class");
+            ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            final byte[] buffer = new byte[8_192];
+            int read;
+
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+
+            return output.toByteArray();
+        }
+    }
+
+
+    private static Class<?> loadInstrumented(final Class<?> original)
+        throws IOException, IllegalClassFormatException, ClassNotFoundException {
+        final ClassLoader parent = original.getClassLoader();
+        final String className = original.getName();
+        final byte[] instrumented = new Sniffer4jTransformer(true)
+            .transform(parent, className.replace('.', '/'), null, null, bytesOf(className, parent));
+
+        return new ClassLoader(parent) {
+
+            @Override
+            protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+                // Child-first only for the instrumented class, so that it implements the same interface
+                if (!name.equals(className)) {
+                    return super.loadClass(name, resolve);
+                }
+
+                synchronized (getClassLoadingLock(name)) {
+                    final Class<?> loaded = findLoadedClass(name);
+
+                    return loaded != null ? loaded : defineClass(name, instrumented, 0, instrumented.length);
+                }
+            }
+
+        }.loadClass(className);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures throughput of {@link LogBroker#submit(int, long, long)} with 1 to 8 producer threads,
+ * while the writer thread consumes records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitBenchmark {
+
+    @Param({ "mode=aggregate", "mode=aggregate,overflow=overwrite" })
+    public String options;
+
+    private int   methodId;
+
+
+    @Setup
+    public void setUp() {
+        BenchmarkAgent.initialize(this.options);
+
+        this.methodId = MethodRegistry.instance().register("sniffer4j.workload.Submitted", "run", "()V");
+        Sampler.register(this.methodId);
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() {
+        submit();
+    }
+
+
+    @Benchmark
+    @Threads(2)
+    public void threads2() {
+        submit();
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() {
+        submit();
+    }
+
+
+    @Benchmark
+    @Threads(8)
+    public void threads8() {
+        submit();
+    }
+
+
+    private void submit() {
+        final long begin = System.nanoTime();
+
+        LogBroker.instance().submit(this.methodId, begin, begin + 1_000);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.IOException;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures time taken by {@link Sniffer4jTransformer} to instrument a single class, which is added
+ * to loading each class in the measured packages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    /**
+     * A small class of 3 methods, and a large class of the benchmark harness
+     */
+    @Param({ "sniffer4j.workload.Workloads", "org.openjdk.jmh.runner.Runner" })
+    public String                className;
+
+    @Param({ "mode=aggregate", "mode=aggregate,calltree=true", "mode=aggregate,weaver=asm", "mode=aggregate,calltree=true,weaver=asm" })
+    public String                options;
+
+    private ClassLoader          loader;
+
+    private String               internalName;
+
+    private byte[]               classfileByteSequence;
+
+    private Sniffer4jTransformer transformer;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkAgent.initialize(this.options);
+
+        this.loader = TransformBenchmark.class.getClassLoader();
+        this.internalName = this.className.replace('.', '/');
+        this.classfileByteSequence = ProbeBenchmark.bytesOf(this.className, this.loader);
+        this.transformer = new Sniffer4jTransformer(true);
+    }
+
+
+    @Benchmark
+    public byte[] transform() throws IllegalClassFormatException {
+        return this.transformer.transform(this.loader, this.internalName, null, null, this.classfileByteSequence);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures how many records per second each {@link LogWriter.Format} writes, which bounds how many
+ * records the writer thread of {@link LogBroker} can consume in raw mode.
+ * 
+ * <p>The log is written to {@link #path}, <code>/dev/null</code> by default so that the disk does
+ * not bound the result; specify a file with <code>-p path=...</code> to include it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+    /**
+     * A name of {@link LogWriter.Format}
+     */
+    @Param({ "CSV", "BINARY" })
+    public String    format;
+
+    @Param({ "/dev/null" })
+    public String    path;
+
+    @Param({ "false", "true" })
+    public boolean   callTree;
+
+    private LogWriter writer;
+
+    private Record    aRecord;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        this.writer = LogWriter.open(Paths.get(this.path), LogWriter.Format.valueOf(this.format), NanoClock.system());
+        this.writer.writeHeader(LogBroker.Mode.RAW, this.callTree, false);
+        this.writer.writeMethod(new MethodRegistry.Entry(0, "sniffer4j.workload.Workloads", "small", "(J)J"));
+
+        this.aRecord = new Record();
+        this.aRecord.threadId = Thread.currentThread().getId();
+        this.aRecord.threadName = Thread.currentThread().getName();
+        this.aRecord.parentId = -1;
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        this.writer.close();
+    }
+
+
+    @Benchmark
+    public void writeRecord() {
+        final long now = System.nanoTime();
+
+        this.aRecord.begin = now - 1_000;
+        this.aRecord.end = now;
+        this.aRecord.self = 1_000;
+        this.writer.writeRecord(this.aRecord);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package sniffer4j.workload;
+
+
+/**
+ * An implementation of {@link Workload}, which benchmarks load twice: as it is, and instrumented.
+ */
+public final class Workloads implements Workload {
+
+    /**
+     * A getter-sized method, which the probe costs more than.
+     * 
+     * @see sniffer4j.workload.Workload#tiny(long)
+     */
+    @Override
+    public long tiny(final long value) {
+        return value + 1;
+    }
+
+
+    /**
+     * @see sniffer4j.workload.Workload#small(long)
+     */
+    @Override
+    public long small(final long value) {
+        long result = value;
+
+        for (int i = 0; i < 16; i++) {
+            result = result * 31 + i;
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @see sniffer4j.workload.Workload#medium(long)
+     */
+    @Override
+    public long medium(final long value) {
+        long result = value;
+
+        for (int i = 0; i < 1_024; i++) {
+            result ^= (result << 13) + i;
+            result ^= result >>> 7;
+        }
+
+        return result;
+    }
+
+}
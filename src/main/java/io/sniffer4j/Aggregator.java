@@ -0,0 +1,199 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+
+/**
+ * Aggregates {@link Record}s into {@link MethodStatistics} per method instead of outputting each of
+ * them. This class is NOT thread-safe, and is used only by the writer thread of {@link LogBroker}.
+ * 
+ * <p>With {@link Options#CALLTREE}, it also aggregates self time per method and an {@link Edge}
+ * per pair of parent and child methods.
+ */
+final class Aggregator implements Consumer<Record> {
+
+    private final boolean         callTree;
+
+    private final boolean         resources;
+
+    private final Map<Long, Edge> edges      = new HashMap<>();
+
+    private MethodStatistics[]    statistics = new MethodStatistics[256];
+
+    private long[]                callsAtReset = new long[0];
+
+
+    /**
+     * @param callTree {@code true} if records carry their parents and self time
+     * @param resources {@code true} if records carry CPU time and allocated bytes
+     */
+    Aggregator(final boolean callTree, final boolean resources) {
+        this.callTree = callTree;
+        this.resources = resources;
+    }
+
+
+    /**
+     * @see java.util.function.Consumer#accept(java.lang.Object)
+     */
+    @Override
+    public void accept(final Record aRecord) {
+        final long elapsed = aRecord.end - aRecord.begin;
+
+        final MethodStatistics statistics = statisticsOf(aRecord.methodId);
+        statistics.record(elapsed, aRecord.self);
+
+        if (this.resources) {
+            statistics.recordResources(aRecord.cpuTime, aRecord.allocated);
+        }
+
+        if (Objects.nonNull(aRecord.thrown)) {
+            statistics.recordError(elapsed);
+        }
+
+        if (this.callTree && aRecord.parentId >= 0) {
+            edgeOf(aRecord.parentId, aRecord.methodId).record(elapsed);
+        }
+    }
+
+
+    /**
+     * Passes each pair of parent and child methods measured since the last reset to the specified
+     * action.
+     * 
+     * @param action An action to be performed for each edge
+     */
+    void forEachEdge(final Consumer<Edge> action) {
+        this.edges.values().forEach(action);
+    }
+
+
+    /**
+     * Passes statistics of each method measured since the last reset to the specified action.
+     * 
+     * @param action An action to be performed for each statistics
+     */
+    void forEachNonEmpty(final Consumer<MethodStatistics> action) {
+        for (final MethodStatistics each : this.statistics) {
+            if (Objects.nonNull(each) && !each.isEmpty()) {
+                action.accept(each);
+            }
+        }
+    }
+
+
+    /**
+     * Resets statistics of all methods. With {@link Sampler}, also keeps the number of invocations
+     * of each method registered so far, for statistics created later in the interval.
+     */
+    void reset() {
+        for (final MethodStatistics each : this.statistics) {
+            if (Objects.nonNull(each)) {
+                each.reset();
+            }
+        }
+
+        this.edges.clear();
+
+        if (Sampler.isEnabled()) {
+            final int registered = MethodRegistry.instance().size();
+
+            if (registered > this.callsAtReset.length) {
+                this.callsAtReset = new long[registered];
+            }
+
+            for (int methodId = 0; methodId < registered; methodId++) {
+                this.callsAtReset[methodId] = Sampler.calls(methodId);
+            }
+        }
+    }
+
+
+    private Edge edgeOf(final int parentId, final int childId) {
+        final Long key = Long.valueOf(((long) parentId << Integer.SIZE) | (childId & 0xFFFF_FFFFL));
+        Edge anEdge = this.edges.get(key);
+
+        if (Objects.isNull(anEdge)) {
+            anEdge = new Edge(parentId, childId);
+            this.edges.put(key, anEdge);
+        }
+
+        return anEdge;
+    }
+
+
+    private MethodStatistics statisticsOf(final int methodId) {
+        if (methodId >= this.statistics.length) {
+            this.statistics = Arrays.copyOf(this.statistics, Math.max(methodId + 1, this.statistics.length * 2));
+        }
+
+        MethodStatistics aStatistics = this.statistics[methodId];
+
+        if (Objects.isNull(aStatistics)) {
+            // Methods registered after the last reset were not invoked before it
+            final long calls = methodId < this.callsAtReset.length ? this.callsAtReset[methodId] : 0;
+
+            aStatistics = new MethodStatistics(methodId, this.callTree, this.resources, calls);
+            this.statistics[methodId] = aStatistics;
+        }
+
+        return aStatistics;
+    }
+
+
+    /**
+     * Calls from a parent method to a child method.
+     */
+    static final class Edge {
+
+        final int  parentId;
+
+        final int  childId;
+
+        long       count;
+
+        long       sum;
+
+
+        private Edge(final int parentId, final int childId) {
+            this.parentId = parentId;
+            this.childId = childId;
+        }
+
+
+        private void record(final long nanos) {
+            this.count++;
+            this.sum += nanos;
+        }
+
+    }
+
+}
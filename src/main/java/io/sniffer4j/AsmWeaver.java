@@ -0,0 +1,359 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.F_NEW;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.JSR;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LONG;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.NEW;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+import static org.objectweb.asm.Opcodes.TOP;
+import static org.objectweb.asm.Opcodes.V1_6;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+
+/**
+ * Instruments classes with minimal hand-built byte-codes instead of source code compiled by
+ * Javassist, selected by {@link Options#WEAVER}.
+ * 
+ * <p>An instrumented method keeps the value of {@link Probe#begin(int)} in a new local variable
+ * after all of the original ones, calls {@link Probe#end(int, long)} before each return, and
+ * {@link Probe#thrown(Throwable, int, long)} in a single handler covering the whole body, which
+ * rethrows. The local variable is appended to every stack map frame, so that frames are never
+ * computed and no class is loaded to compute them.
+ * 
+ * <p>This class is thread-safe, and needs no {@link javassist.ClassPool}.
+ */
+final class AsmWeaver {
+
+    private static final String PROBE = "io/sniffer4j/Probe";
+
+    private final MethodFilter  methodFilter;
+
+
+    /**
+     * @param methodFilter A filter deciding methods to be instrumented
+     */
+    AsmWeaver(final MethodFilter methodFilter) {
+        this.methodFilter = methodFilter;
+    }
+
+
+    /**
+     * @param classfileByteSequence Byte-codes of a class
+     * @param registered A list to add methods instrumented to
+     * @return Instrumented byte-codes, or {@code null} if no method is instrumented
+     */
+    byte[] weave(final byte[] classfileByteSequence, final List<MethodRegistry.Entry> registered) {
+        final ClassReader reader = new ClassReader(classfileByteSequence);
+        final ClassNode aClass = new ClassNode();
+        reader.accept(aClass, ClassReader.EXPAND_FRAMES);
+
+        final Map<String, Integer> codeLengths = codeLengthsOf(reader);
+        final String className = aClass.name.replace('/', '.');
+        final MethodRegistry registry = MethodRegistry.instance();
+
+        for (final MethodNode aMethod : aClass.methods) {
+            final int codeLength = codeLengths.getOrDefault(aMethod.name + aMethod.desc, Integer.valueOf(0)).intValue();
+
+            if (!this.methodFilter.test(aMethod.access, aMethod.name, aMethod.desc, codeLength, annotation -> isAnnotated(aMethod, annotation))
+                || containsSubroutine(aMethod)) {
+                continue;
+            }
+
+            final boolean constructor = "<init>".equals(aMethod.name);
+            final AbstractInsnNode superCall = constructor ? findSuperCall(aMethod) : null;
+
+            if (constructor && Objects.isNull(superCall)) {
+                continue;
+            }
+
+            final int methodId = registry.register(className, aMethod.name, aMethod.desc);
+            Sampler.register(methodId);
+
+            // The minor version is in the upper half, which is 0xFFFF for preview features
+            weavePerMethod(aMethod, superCall, methodId, (aClass.version & 0xFFFF) >= V1_6);
+            registered.add(registry.entry(methodId));
+        }
+
+        // Leaves the class as it is
+        if (registered.isEmpty()) {
+            return null;
+        }
+
+        // Maximum stack size and local variables are computed, but frames are not
+        final ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        aClass.accept(writer);
+
+        return writer.toByteArray();
+    }
+
+
+    /**
+     * Appends the local variable holding the beginning to an expanded frame, padding unused slots.
+     */
+    private static void appendBeginTo(final FrameNode aFrame, final int beginIndex) {
+        final List<Object> locals = Objects.isNull(aFrame.local) ? new ArrayList<>() : new ArrayList<>(aFrame.local);
+        int slots = 0;
+
+        for (final Object each : locals) {
+            slots += Opcodes.LONG.equals(each) || Opcodes.DOUBLE.equals(each) ? 2 : 1;
+        }
+
+        for (; slots < beginIndex; slots++) {
+            locals.add(TOP);
+        }
+
+        locals.add(LONG);
+        aFrame.local = locals;
+    }
+
+
+    /**
+     * Reads lengths of the byte-codes of methods, which the tree API does not keep, from the
+     * <code>Code</code> attributes.
+     */
+    private static Map<String, Integer> codeLengthsOf(final ClassReader reader) {
+        final Map<String, Integer> codeLengths = new HashMap<>();
+        final char[] buffer = new char[reader.getMaxStringLength()];
+
+        // Skips access flags, this class, super class and interfaces
+        int offset = reader.header + 6;
+        offset += 2 + reader.readUnsignedShort(offset) * 2;
+
+        // Skips fields
+        final int fields = reader.readUnsignedShort(offset);
+        offset += 2;
+
+        for (int i = 0; i < fields; i++) {
+            offset = skipAttributes(reader, offset + 8, reader.readUnsignedShort(offset + 6));
+        }
+
+        final int methods = reader.readUnsignedShort(offset);
+        offset += 2;
+
+        for (int i = 0; i < methods; i++) {
+            final String key = reader.readUTF8(offset + 2, buffer) + reader.readUTF8(offset + 4, buffer);
+            int attributeOffset = offset + 8;
+
+            for (int attributes = reader.readUnsignedShort(offset + 6); attributes > 0; attributes--) {
+                if ("Code".equals(reader.readUTF8(attributeOffset, buffer))) {
+                    // Following max_stack and max_locals
+                    codeLengths.put(key, Integer.valueOf(reader.readInt(attributeOffset + 10)));
+                }
+
+                attributeOffset += 6 + reader.readInt(attributeOffset + 2);
+            }
+
+            offset = attributeOffset;
+        }
+
+        return codeLengths;
+    }
+
+
+    private static boolean containsSubroutine(final MethodNode aMethod) {
+        for (final AbstractInsnNode each : aMethod.instructions) {
+            // Class files older than Java 6 may have them, which split frames
+            if (each.getOpcode() == JSR) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * A constructor is covered from after the call to <code>super()</code> or <code>this()</code>,
+     * before which <code>this</code> is not initialized. It is the first
+     * <code>invokespecial &lt;init&gt;</code> not paired with a preceding <code>new</code>.
+     * 
+     * @return The call, or {@code null} if not found
+     */
+    private static AbstractInsnNode findSuperCall(final MethodNode aMethod) {
+        int uninitialized = 0;
+
+        for (final AbstractInsnNode each : aMethod.instructions) {
+            if (each.getOpcode() == NEW) {
+                uninitialized++;
+            } else if (each.getOpcode() == INVOKESPECIAL && "<init>".equals(((MethodInsnNode) each).name)) {
+                if (uninitialized == 0) {
+                    return each;
+                }
+
+                uninitialized--;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static boolean isAnnotated(final MethodNode aMethod, final String annotation) {
+        final String descriptor = "L" + annotation.replace('.', '/') + ";";
+
+        return isAnnotated(aMethod.visibleAnnotations, descriptor) || isAnnotated(aMethod.invisibleAnnotations, descriptor);
+    }
+
+
+    private static boolean isAnnotated(final List<AnnotationNode> annotations, final String descriptor) {
+        if (Objects.isNull(annotations)) {
+            return false;
+        }
+
+        for (final AnnotationNode each : annotations) {
+            if (descriptor.equals(each.desc)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private static AbstractInsnNode pushInt(final int value) {
+        if (value >= -1 && value <= 5) {
+            return new InsnNode(Opcodes.ICONST_0 + value);
+        }
+
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return new IntInsnNode(BIPUSH, value);
+        }
+
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return new IntInsnNode(SIPUSH, value);
+        }
+
+        return new LdcInsnNode(Integer.valueOf(value));
+    }
+
+
+    private static int skipAttributes(final ClassReader reader, final int offset, final int attributes) {
+        int next = offset;
+
+        for (int i = 0; i < attributes; i++) {
+            next += 6 + reader.readInt(next + 2);
+        }
+
+        return next;
+    }
+
+
+    /**
+     * @param superCall A call to <code>super()</code> or <code>this()</code> followed by the
+     *            prologue, or {@code null} to insert it at the beginning
+     * @param hasFrames {@code true} if the class file has stack map frames
+     */
+    private static void weavePerMethod(final MethodNode aMethod, final AbstractInsnNode superCall, final int methodId, final boolean hasFrames) {
+        final int beginIndex = aMethod.maxLocals;
+        final InsnList instructions = aMethod.instructions;
+        final LabelNode start = new LabelNode();
+        final LabelNode end = new LabelNode();
+        final LabelNode handler = new LabelNode();
+
+        final InsnList prologue = new InsnList();
+        prologue.add(pushInt(methodId));
+        prologue.add(new MethodInsnNode(INVOKESTATIC, PROBE, "begin", "(I)J", false));
+        prologue.add(new VarInsnNode(LSTORE, beginIndex));
+        prologue.add(start);
+
+        if (Objects.isNull(superCall)) {
+            instructions.insert(prologue);
+        } else {
+            instructions.insert(superCall, prologue);
+        }
+
+        boolean inBody = false;
+
+        for (AbstractInsnNode each = instructions.getFirst(); Objects.nonNull(each); each = each.getNext()) {
+            final int opcode = each.getOpcode();
+
+            if (each == start) {
+                inBody = true;
+            } else if (inBody && each instanceof FrameNode) {
+                appendBeginTo((FrameNode) each, beginIndex);
+            } else if (inBody && opcode >= IRETURN && opcode <= RETURN) {
+                final InsnList epilogue = new InsnList();
+                epilogue.add(pushInt(methodId));
+                epilogue.add(new VarInsnNode(LLOAD, beginIndex));
+                epilogue.add(new MethodInsnNode(INVOKESTATIC, PROBE, "end", "(IJ)V", false));
+                instructions.insertBefore(each, epilogue);
+            }
+        }
+
+        instructions.add(end);
+        instructions.add(handler);
+
+        // Only the beginning is read in the handler, so other local variables may be anything
+        if (hasFrames) {
+            final FrameNode aFrame = new FrameNode(F_NEW, 0, null, 1, new Object[] { "java/lang/Throwable" });
+            appendBeginTo(aFrame, beginIndex);
+            instructions.add(aFrame);
+        }
+
+        instructions.add(new InsnNode(DUP));
+        instructions.add(pushInt(methodId));
+        instructions.add(new VarInsnNode(LLOAD, beginIndex));
+        instructions.add(new MethodInsnNode(INVOKESTATIC, PROBE, "thrown", "(Ljava/lang/Throwable;IJ)V", false));
+        instructions.add(new InsnNode(ATHROW));
+
+        // Added last, so that handlers of the original code take precedence
+        aMethod.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+        aMethod.maxLocals = beginIndex + 2;
+    }
+
+}
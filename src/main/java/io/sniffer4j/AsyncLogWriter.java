@@ -0,0 +1,379 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * Delivers everything written into another {@link LogWriter} on its own thread, so that a slow
+ * sink does not hold up the writer thread of {@link LogBroker}, nor other sinks.
+ * 
+ * <p>Records are copied into batches of {@link #BATCH_SIZE}, which are handed over in order with
+ * other entries through an unbounded queue, and recycled. Only a limited number of batches may wait
+ * for the sink; beyond that, the batch is dropped and counted, and the count is added to the
+ * trailer of the sink. Other entries are few, and always queued so that the sink receives all of
+ * methods and summaries, except for flushes, of which at most one waits at a time.
+ * 
+ * <p>The writer thread never waits for the sink, even to close it. Instead, the shutdown hook of
+ * {@link LogBroker} waits for sinks by {@link #awaitClosed(long)}. A sink which throws anything is
+ * marked failed, and everything for it is discarded from then on.
+ */
+final class AsyncLogWriter implements LogWriter {
+
+    private static final int                         BATCH_SIZE = 1_024;
+
+    private static final Consumer<LogWriter>         CLOSE      = LogWriter::close;
+
+    private static final LongAdder                   DELIVERED  = new LongAdder();
+
+    private static final Set<Thread>                 OPEN       = ConcurrentHashMap.newKeySet();
+
+    private final BlockingQueue<Consumer<LogWriter>> commands;
+
+    private final BlockingQueue<Record[]>            batches;
+
+    private final AtomicInteger                      pendingBatches = new AtomicInteger();
+
+    private final AtomicBoolean                      flushQueued = new AtomicBoolean();
+
+    private final Consumer<LogWriter>                flush;
+
+    private final int                                capacity;
+
+    private final LogWriter                          delegate;
+
+    private final Thread                             thread;
+
+    private Record[]                                 batch;
+
+    private int                                      batchLength;
+
+    private long                                     dropped;
+
+    private volatile boolean                         failed;
+
+
+    /**
+     * @param name A name of the sink, which names the thread
+     * @param delegate A writer of the sink
+     * @param capacity Maximum number of batches waiting for the sink
+     */
+    AsyncLogWriter(final String name, final LogWriter delegate, final int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.commands = new LinkedBlockingQueue<>();
+        this.batches = new ArrayBlockingQueue<>(this.capacity + 1);
+        this.delegate = delegate;
+        this.batch = nextBatch();
+        this.flush = aWriter -> {
+            // Cleared first, so that a flush requested meanwhile is queued again
+            this.flushQueued.set(false);
+            aWriter.flush();
+        };
+        this.thread = new Thread(this::deliverUntilClosed, "sniffer4j-sink-" + name);
+        this.thread.setDaemon(true);
+
+        OPEN.add(this.thread);
+        this.thread.start();
+    }
+
+
+    /**
+     * @return Total number of records delivered to all of sinks, which tells the shutdown hook of
+     *         {@link LogBroker} that sinks are still making progress
+     */
+    static long deliveredRecords() {
+        return DELIVERED.sum();
+    }
+
+
+    /**
+     * Waits for all of sinks to receive everything and to be closed, up to the specified time.
+     * 
+     * @param millis Maximum milliseconds to wait
+     * @return {@code true} if all of sinks are closed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    static boolean awaitClosed(final long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        for (final Thread each : OPEN) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            each.join(remaining);
+        }
+
+        return OPEN.isEmpty();
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeHeader(io.sniffer4j.LogBroker.Mode, boolean, boolean)
+     */
+    @Override
+    public void writeHeader(final LogBroker.Mode mode, final boolean callTree, final boolean resources) {
+        send(aWriter -> aWriter.writeHeader(mode, callTree, resources));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSampling(java.lang.String)
+     */
+    @Override
+    public void writeSampling(final String description) {
+        send(aWriter -> aWriter.writeSampling(description));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeOverhead(long)
+     */
+    @Override
+    public void writeOverhead(final long nanos) {
+        send(aWriter -> aWriter.writeOverhead(nanos));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeMethod(io.sniffer4j.MethodRegistry.Entry)
+     */
+    @Override
+    public void writeMethod(final MethodRegistry.Entry anEntry) {
+        send(aWriter -> aWriter.writeMethod(anEntry));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeRecord(io.sniffer4j.Record)
+     */
+    @Override
+    public void writeRecord(final Record aRecord) {
+        final Record copy = this.batch[this.batchLength++];
+        copy.copyFrom(aRecord);
+        copy.threadId = aRecord.threadId;
+        copy.threadName = aRecord.threadName;
+
+        if (this.batchLength == BATCH_SIZE) {
+            handOver();
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeInterval(long, long)
+     */
+    @Override
+    public void writeInterval(final long begin, final long end) {
+        send(aWriter -> aWriter.writeInterval(begin, end));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeStatistics(long[])
+     */
+    @Override
+    public void writeStatistics(final long[] summary) {
+        send(aWriter -> aWriter.writeStatistics(summary));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeEdge(int, int, long, long)
+     */
+    @Override
+    public void writeEdge(final int parentId, final int childId, final long count, final long totalNanos) {
+        send(aWriter -> aWriter.writeEdge(parentId, childId, count, totalNanos));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCalls(int, long, long)
+     */
+    @Override
+    public void writeCalls(final int methodId, final long calls, final long sampled) {
+        send(aWriter -> aWriter.writeCalls(methodId, calls, sampled));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCache(long, long)
+     */
+    @Override
+    public void writeCache(final long hits, final long misses) {
+        send(aWriter -> aWriter.writeCache(hits, misses));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSpill(long, long)
+     */
+    @Override
+    public void writeSpill(final long spilled, final long dropped) {
+        send(aWriter -> aWriter.writeSpill(spilled, dropped));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeTrailer(long, long)
+     */
+    @Override
+    public void writeTrailer(final long droppedRecords, final long overwritten) {
+        handOver();
+
+        final long total = droppedRecords + this.dropped;
+        send(aWriter -> aWriter.writeTrailer(total, overwritten));
+    }
+
+
+    /**
+     * Hands over records written so far, and requests the sink to flush them, unless a flush is
+     * already waiting for the sink.
+     * 
+     * @see io.sniffer4j.LogWriter#flush()
+     */
+    @Override
+    public void flush() {
+        handOver();
+
+        if (this.flushQueued.compareAndSet(false, true)) {
+            send(this.flush);
+        }
+    }
+
+
+    /**
+     * Requests the sink to close after receiving everything, without waiting for it.
+     * 
+     * @see io.sniffer4j.LogWriter#close()
+     */
+    @Override
+    public void close() {
+        handOver();
+        this.commands.add(CLOSE);
+    }
+
+
+    private void deliverUntilClosed() {
+        try {
+            while (true) {
+                final Consumer<LogWriter> command;
+
+                try {
+                    command = this.commands.take();
+                } catch (@SuppressWarnings("unused") final InterruptedException ignored) {
+                    return;
+                }
+
+                // A failed sink keeps taking commands until closed, so as to drain the queue
+                if (!this.failed) {
+                    try {
+                        command.accept(this.delegate);
+                    } catch (final Throwable cause) {
+                        this.failed = true;
+                        System.err.println("Sink " + Thread.currentThread().getName() + " failed: " + cause);
+                    }
+                }
+
+                if (command == CLOSE) {
+                    return;
+                }
+            }
+        } finally {
+            OPEN.remove(Thread.currentThread());
+        }
+    }
+
+
+    private void handOver() {
+        if (this.batchLength == 0) {
+            return;
+        }
+
+        final Record[] records = this.batch;
+        final int length = this.batchLength;
+
+        this.batchLength = 0;
+
+        // The sink is too slow or failed, so the batch is reused for the next records
+        if (this.failed || this.pendingBatches.get() >= this.capacity) {
+            this.dropped += length;
+            return;
+        }
+
+        this.pendingBatches.incrementAndGet();
+        this.commands.add(aWriter -> {
+            try {
+                aWriter.writeRecords(records, length);
+                DELIVERED.add(length);
+            } finally {
+                this.pendingBatches.decrementAndGet();
+                this.batches.offer(records);
+            }
+        });
+
+        this.batch = nextBatch();
+    }
+
+
+    private Record[] nextBatch() {
+        final Record[] recycled = this.batches.poll();
+
+        if (Objects.nonNull(recycled)) {
+            return recycled;
+        }
+
+        final Record[] records = new Record[BATCH_SIZE];
+
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new Record();
+        }
+
+        return records;
+    }
+
+
+    private void send(final Consumer<LogWriter> command) {
+        handOver();
+
+        if (!this.failed) {
+            this.commands.add(command);
+        }
+    }
+
+}
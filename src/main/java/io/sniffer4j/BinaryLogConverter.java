@@ -0,0 +1,214 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+
+
+/**
+ * Converts a log segment written by {@link BinaryLogWriter} into the same CSV as
+ * {@link CsvLogWriter} writes.
+ * 
+ * <pre>
+ * java -jar sniffer4j.jar &lt;binary log&gt; [&lt;csv file&gt;]
+ * </pre>
+ * 
+ * <p>If the CSV file is omitted, the result is written to the standard output.
+ */
+public final class BinaryLogConverter {
+
+    private BinaryLogConverter() {
+    }
+
+
+    /**
+     * @param args A path of the binary log, and optionally a path of the CSV file
+     * @throws IOException If failed to read or write
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java -jar sniffer4j.jar <binary log> [<csv file>]");
+            return;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(args[0])), 1 << 16));
+            final PrintWriter output = args.length == 2
+                ? new PrintWriter(Files.newBufferedWriter(Paths.get(args[1]), CREATE, TRUNCATE_EXISTING))
+                : new PrintWriter(new OutputStreamWriter(System.out, UTF_8))) {
+            convert(input, output);
+        }
+    }
+
+
+    /**
+     * @param input A stream of a binary log segment
+     * @param output A writer to output CSV into
+     * @throws IOException If the input is not a binary log, or failed to read or write
+     */
+    static void convert(final DataInputStream input, final PrintWriter output) throws IOException {
+        if (input.readInt() != BinaryLogWriter.MAGIC) {
+            throw new IOException("Not a binary log of Sniffer4j.");
+        }
+
+        final int version = input.readInt();
+
+        if (version != BinaryLogWriter.VERSION) {
+            throw new IOException("Unsupported version of binary log: " + version);
+        }
+
+        final NanoClock clock = new NanoClock(input.readLong(), input.readLong(), ZoneId.of(readString(input)));
+        final CsvLogWriter writer = new CsvLogWriter(output, clock);
+
+        try {
+            convertEntries(input, writer);
+        } catch (@SuppressWarnings("unused") final EOFException truncated) {
+            // The JVM may have been terminated while writing the last entries
+            System.err.println("Binary log is truncated.");
+        } finally {
+            writer.flush();
+        }
+    }
+
+
+    private static void convertEntries(final DataInputStream input, final CsvLogWriter writer) throws IOException {
+        final BinaryLogWriter.ThreadNames threadNames = new BinaryLogWriter.ThreadNames();
+        final Record aRecord = new Record();
+        int tag;
+
+        while ((tag = input.read()) != -1) {
+            switch (tag) {
+            case BinaryLogWriter.HEADER:
+                writer.writeHeader(LogBroker.Mode.values()[input.readInt()], input.readByte() != 0, input.readByte() != 0);
+                break;
+
+            case BinaryLogWriter.SAMPLING:
+                writer.writeSampling(readString(input));
+                break;
+
+            case BinaryLogWriter.OVERHEAD:
+                writer.writeOverhead(input.readLong());
+                break;
+
+            case BinaryLogWriter.METHOD:
+                writer.writeMethod(new MethodRegistry.Entry(input.readInt(), readString(input), readString(input), readString(input)));
+                break;
+
+            case BinaryLogWriter.THREAD:
+                threadNames.put(input.readLong(), readString(input));
+                break;
+
+            case BinaryLogWriter.THROWN:
+                aRecord.thrown = readString(input);
+                break;
+
+            case BinaryLogWriter.RESOURCES:
+                aRecord.cpuTime = input.readLong();
+                aRecord.allocated = input.readLong();
+                break;
+
+            case BinaryLogWriter.RECORD:
+            case BinaryLogWriter.SPAN:
+                aRecord.methodId = input.readInt();
+                aRecord.threadId = input.readLong();
+                aRecord.threadName = threadNames.get(aRecord.threadId);
+                aRecord.begin = input.readLong();
+                aRecord.end = input.readLong();
+
+                if (tag == BinaryLogWriter.SPAN) {
+                    aRecord.parentId = input.readInt();
+                    aRecord.depth = input.readInt();
+                    aRecord.self = input.readLong();
+                }
+
+                writer.writeRecord(aRecord);
+                aRecord.thrown = null;
+                break;
+
+            case BinaryLogWriter.INTERVAL:
+                writer.writeInterval(input.readLong(), input.readLong());
+                break;
+
+            case BinaryLogWriter.STATISTICS:
+                writer.writeStatistics(readLongs(input));
+                break;
+
+            case BinaryLogWriter.EDGE:
+                writer.writeEdge(input.readInt(), input.readInt(), input.readLong(), input.readLong());
+                break;
+
+            case BinaryLogWriter.CALLS:
+                writer.writeCalls(input.readInt(), input.readLong(), input.readLong());
+                break;
+
+            case BinaryLogWriter.CACHE:
+                writer.writeCache(input.readLong(), input.readLong());
+                break;
+
+            case BinaryLogWriter.SPILL:
+                writer.writeSpill(input.readLong(), input.readLong());
+                break;
+
+            case BinaryLogWriter.TRAILER:
+                writer.writeTrailer(input.readLong(), input.readLong());
+                break;
+
+            default:
+                throw new IOException("Unknown entry in binary log: " + tag);
+            }
+        }
+    }
+
+
+    private static long[] readLongs(final DataInputStream input) throws IOException {
+        final long[] values = new long[input.readInt()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readLong();
+        }
+
+        return values;
+    }
+
+
+    private static String readString(final DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * Writes a log segment in a compact binary format through a {@link FileChannel} in large batches.
+ * 
+ * <p>A segment starts with a preamble: {@link #MAGIC}, {@link #VERSION}, and the anchor of the
+ * {@link NanoClock} (epoch nanos, nanoTime and time zone ID). Then a sequence of entries follows,
+ * each of which is a tag byte and a payload in big-endian. Strings are an int length followed by
+ * UTF-8 bytes. A record is a fixed-width {@link #RECORD} entry of method ID, thread ID, begin and
+ * end nanoTime, or a {@link #SPAN} entry which also has parent method ID, depth and self time with
+ * the call tree; thread names are written as {@link #THREAD} entries only when they are not in
+ * {@link ThreadNames}, which the reader keeps in the same way, and a
+ * record of an execution which exited by throwing follows a {@link #THROWN} entry of the exception
+ * class name. With {@link Options#RESOURCES}, each record follows a {@link #RESOURCES} entry of CPU
+ * time and allocated bytes.
+ */
+final class BinaryLogWriter implements LogWriter {
+
+    static final int                MAGIC       = 0x534E4634;
+
+    static final int                VERSION     = 6;
+
+    static final byte               HEADER      = 'H';
+
+    static final byte               SAMPLING    = 'S';
+
+    static final byte               OVERHEAD    = 'O';
+
+    static final byte               METHOD      = 'M';
+
+    static final byte               THREAD      = 'T';
+
+    static final byte               RECORD      = 'R';
+
+    static final byte               SPAN        = 'N';
+
+    static final byte               THROWN      = 'X';
+
+    static final byte               RESOURCES   = 'U';
+
+    static final byte               INTERVAL    = 'I';
+
+    static final byte               STATISTICS  = 'A';
+
+    static final byte               EDGE        = 'E';
+
+    static final byte               CALLS       = 'C';
+
+    static final byte               CACHE       = 'K';
+
+    static final byte               SPILL       = 'P';
+
+    static final byte               TRAILER     = 'Z';
+
+    private static final int        BUFFER_SIZE = 1 << 20;
+
+    private final ByteBuffer        buffer      = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final ThreadNames       threadNames = new ThreadNames();
+
+    private final FileChannel       channel;
+
+    private long                    lastThreadId;
+
+    private String                  lastThreadName;
+
+    private boolean                 callTree;
+
+    private boolean                 resources;
+
+
+    BinaryLogWriter(final Path path, final NanoClock clock) throws IOException {
+        this.channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE);
+
+        this.buffer.putInt(MAGIC);
+        this.buffer.putInt(VERSION);
+        this.buffer.putLong(clock.anchorEpochNanos());
+        this.buffer.putLong(clock.anchorNanoTime());
+        putString(clock.zone().getId());
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeHeader(io.sniffer4j.LogBroker.Mode, boolean, boolean)
+     */
+    @Override
+    public void writeHeader(final LogBroker.Mode mode, final boolean callTree, final boolean resources) {
+        this.callTree = callTree;
+        this.resources = resources;
+
+        ensureRemaining(Byte.BYTES + Integer.BYTES + Byte.BYTES * 2);
+        this.buffer.put(HEADER);
+        this.buffer.putInt(mode.ordinal());
+        this.buffer.put((byte) (callTree ? 1 : 0));
+        this.buffer.put((byte) (resources ? 1 : 0));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSampling(java.lang.String)
+     */
+    @Override
+    public void writeSampling(final String description) {
+        ensureRemaining(Byte.BYTES);
+        this.buffer.put(SAMPLING);
+        putString(description);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeOverhead(long)
+     */
+    @Override
+    public void writeOverhead(final long nanos) {
+        ensureRemaining(Byte.BYTES + Long.BYTES);
+        this.buffer.put(OVERHEAD);
+        this.buffer.putLong(nanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeMethod(io.sniffer4j.MethodRegistry.Entry)
+     */
+    @Override
+    public void writeMethod(final MethodRegistry.Entry anEntry) {
+        ensureRemaining(Byte.BYTES + Integer.BYTES);
+        this.buffer.put(METHOD);
+        this.buffer.putInt(anEntry.id);
+        putString(anEntry.className);
+        putString(anEntry.methodName);
+        putString(anEntry.descriptor);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeRecord(io.sniffer4j.Record)
+     */
+    @Override
+    public void writeRecord(final Record aRecord) {
+        writeThreadIfChanged(aRecord.threadId, aRecord.threadName);
+
+        if (Objects.nonNull(aRecord.thrown)) {
+            ensureRemaining(Byte.BYTES);
+            this.buffer.put(THROWN);
+            putString(aRecord.thrown);
+        }
+
+        if (this.resources) {
+            ensureRemaining(Byte.BYTES + Long.BYTES * 2);
+            this.buffer.put(RESOURCES);
+            this.buffer.putLong(aRecord.cpuTime);
+            this.buffer.putLong(aRecord.allocated);
+        }
+
+        ensureRemaining(Byte.BYTES + Integer.BYTES + Long.BYTES * 3 + Integer.BYTES * 2 + Long.BYTES);
+        this.buffer.put(this.callTree ? SPAN : RECORD);
+        this.buffer.putInt(aRecord.methodId);
+        this.buffer.putLong(aRecord.threadId);
+        this.buffer.putLong(aRecord.begin);
+        this.buffer.putLong(aRecord.end);
+
+        if (this.callTree) {
+            this.buffer.putInt(aRecord.parentId);
+            this.buffer.putInt(aRecord.depth);
+            this.buffer.putLong(aRecord.self);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeInterval(long, long)
+     */
+    @Override
+    public void writeInterval(final long begin, final long end) {
+        ensureRemaining(Byte.BYTES + Long.BYTES * 2);
+        this.buffer.put(INTERVAL);
+        this.buffer.putLong(begin);
+        this.buffer.putLong(end);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeStatistics(long[])
+     */
+    @Override
+    public void writeStatistics(final long[] summary) {
+        ensureRemaining(Byte.BYTES + Integer.BYTES + Long.BYTES * summary.length);
+        this.buffer.put(STATISTICS);
+        this.buffer.putInt(summary.length);
+
+        for (final long each : summary) {
+            this.buffer.putLong(each);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeEdge(int, int, long, long)
+     */
+    @Override
+    public void writeEdge(final int parentId, final int childId, final long count, final long totalNanos) {
+        ensureRemaining(Byte.BYTES + Integer.BYTES * 2 + Long.BYTES * 2);
+        this.buffer.put(EDGE);
+        this.buffer.putInt(parentId);
+        this.buffer.putInt(childId);
+        this.buffer.putLong(count);
+        this.buffer.putLong(totalNanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCalls(int, long, long)
+     */
+    @Override
+    public void writeCalls(final int methodId, final long calls, final long sampled) {
+        ensureRemaining(Byte.BYTES + Integer.BYTES + Long.BYTES * 2);
+        this.buffer.put(CALLS);
+        this.buffer.putInt(methodId);
+        this.buffer.putLong(calls);
+        this.buffer.putLong(sampled);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCache(long, long)
+     */
+    @Override
+    public void writeCache(final long hits, final long misses) {
+        ensureRemaining(Byte.BYTES + Long.BYTES * 2);
+        this.buffer.put(CACHE);
+        this.buffer.putLong(hits);
+        this.buffer.putLong(misses);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSpill(long, long)
+     */
+    @Override
+    public void writeSpill(final long spilled, final long dropped) {
+        ensureRemaining(Byte.BYTES + Long.BYTES * 2);
+        this.buffer.put(SPILL);
+        this.buffer.putLong(spilled);
+        this.buffer.putLong(dropped);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeTrailer(long, long)
+     */
+    @Override
+    public void writeTrailer(final long dropped, final long overwritten) {
+        ensureRemaining(Byte.BYTES + Long.BYTES * 2);
+        this.buffer.put(TRAILER);
+        this.buffer.putLong(dropped);
+        this.buffer.putLong(overwritten);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#flush()
+     */
+    @Override
+    public void flush() {
+        this.buffer.flip();
+
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+        } catch (final IOException cause) {
+            throw new UncheckedIOException(cause);
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#close()
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            try {
+                this.channel.close();
+            } catch (final IOException cause) {
+                throw new UncheckedIOException(cause);
+            }
+        }
+    }
+
+
+    private void ensureRemaining(final int bytes) {
+        if (this.buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+
+    private void putString(final String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+
+        ensureRemaining(Integer.BYTES + bytes.length);
+        this.buffer.putInt(bytes.length);
+        this.buffer.put(bytes);
+    }
+
+
+    private void writeThreadIfChanged(final long threadId, final String threadName) {
+        // Records arrive in runs per thread, so the cache is looked up only when the thread changes
+        if (threadId == this.lastThreadId && Objects.equals(threadName, this.lastThreadName)) {
+            return;
+        }
+
+        this.lastThreadId = threadId;
+        this.lastThreadName = threadName;
+
+        if (!this.threadNames.put(threadId, threadName)) {
+            return;
+        }
+
+        ensureRemaining(Byte.BYTES + Long.BYTES);
+        this.buffer.put(THREAD);
+        this.buffer.putLong(threadId);
+        putString(threadName);
+    }
+
+
+    /**
+     * A direct-mapped cache of thread names keyed by thread ID, whose size is fixed however many
+     * threads, such as virtual threads, come and go. A name evicted by another thread is written
+     * again by the writer, and the reader evicts it in the same way.
+     */
+    static final class ThreadNames {
+
+        private static final int SIZE  = 1_024;
+
+        private final long[]     ids   = new long[SIZE];
+
+        private final String[]   names = new String[SIZE];
+
+
+        ThreadNames() {
+            // No thread has ID -1
+            Arrays.fill(this.ids, -1);
+        }
+
+
+        /**
+         * @param threadId An ID of a thread
+         * @return A name of the thread, or {@code null} if unknown
+         */
+        String get(final long threadId) {
+            final int index = (int) threadId & (SIZE - 1);
+
+            return this.ids[index] == threadId ? this.names[index] : null;
+        }
+
+
+        /**
+         * @param threadId An ID of a thread
+         * @param threadName A name of the thread
+         * @return {@code true} if the name was not cached for the thread
+         */
+        boolean put(final long threadId, final String threadName) {
+            final int index = (int) threadId & (SIZE - 1);
+
+            if (this.ids[index] == threadId && Objects.equals(this.names[index], threadName)) {
+                return false;
+            }
+
+            this.ids[index] = threadId;
+            this.names[index] = threadName;
+
+            return true;
+        }
+
+    }
+
+}
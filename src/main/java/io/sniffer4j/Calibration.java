@@ -0,0 +1,101 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Measures the cost of a probe on this machine at startup, with {@link Options#CALIBRATE}.
+ * 
+ * <p>A probe of an instrumented method is counted in time taken by its callers, and this adds up
+ * with depth. {@link LogBroker} subtracts the cost measured here from time taken by a call once for
+ * each instrumented call nested in it. The cost is measured by running the same code as probes of
+ * the call tree, <code>System.nanoTime()</code> twice and {@link LogBroker#enter(int, long)} and
+ * {@link LogBroker#exit(int, long, long)}, on a scratch buffer which is never written to the log,
+ * and taking the median of several rounds after the JIT compiler has warmed it up.
+ */
+final class Calibration {
+
+    private static final int WARMUP_CALLS    = 50_000;
+
+    private static final int ROUNDS          = 31;
+
+    private static final int CALLS_PER_ROUND = 1_000;
+
+
+    private Calibration() {
+    }
+
+
+    /**
+     * @param broker A broker to run probes of, which is not compensated yet
+     * @return Nanoseconds taken by a probe
+     */
+    static long measure(final LogBroker broker) {
+        final RingBuffer buffer = new RingBuffer(Thread.currentThread(), CALLS_PER_ROUND, RingBuffer.Overflow.DROP, null);
+        final ThreadLocal<RingBuffer> localBuffer = ThreadLocal.withInitial(() -> buffer);
+        final Record scratch = new Record();
+        final long[] nanosPerCall = new long[ROUNDS];
+
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            if (i % CALLS_PER_ROUND == 0) {
+                buffer.drain(scratch, Calibration::discard);
+            }
+
+            probe(broker, localBuffer);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            buffer.drain(scratch, Calibration::discard);
+
+            final long begin = System.nanoTime();
+
+            for (int i = 0; i < CALLS_PER_ROUND; i++) {
+                probe(broker, localBuffer);
+            }
+
+            nanosPerCall[round] = (System.nanoTime() - begin) / CALLS_PER_ROUND;
+        }
+
+        Arrays.sort(nanosPerCall);
+
+        return nanosPerCall[ROUNDS / 2];
+    }
+
+
+    @SuppressWarnings("unused")
+    private static void discard(final Record aRecord) {
+        // Never written
+    }
+
+
+    private static void probe(final LogBroker broker, final ThreadLocal<RingBuffer> localBuffer) {
+        final long begin = System.nanoTime();
+        broker.enter(localBuffer.get(), 0, begin);
+        broker.exit(localBuffer.get(), 0, begin, System.nanoTime(), null);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A stack of instrumented method executions in progress on a single thread, which reconstructs
+ * parent/child relationships and exclusive (self) time. This class is NOT thread-safe, and is used
+ * only by the thread owning the {@link RingBuffer} that holds it.
+ */
+final class CallStack {
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private long[]           begins        = new long[INITIAL_DEPTH];
+
+    private long[]           childNanos    = new long[INITIAL_DEPTH];
+
+    private long[]           descendants   = new long[INITIAL_DEPTH];
+
+    private int[]            methodIds     = new int[INITIAL_DEPTH];
+
+    private long[]           cpuTimes      = new long[INITIAL_DEPTH];
+
+    private long[]           allocations   = new long[INITIAL_DEPTH];
+
+    private int              depth;
+
+    private long             poppedChildNanos;
+
+    private long             poppedDescendants;
+
+    private long             poppedCpuTime;
+
+    private long             poppedAllocated;
+
+
+    /**
+     * @param methodId An ID of the method entered
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     */
+    void push(final int methodId, final long begin) {
+        push(methodId, begin, 0, 0);
+    }
+
+
+    /**
+     * @param methodId An ID of the method entered
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     * @param cpuTime CPU time of the thread at the beginning, see {@link ThreadResources#cpuTime()}
+     * @param allocated Bytes allocated by the thread at the beginning, see
+     *            {@link ThreadResources#allocatedBytes()}
+     */
+    void push(final int methodId, final long begin, final long cpuTime, final long allocated) {
+        if (this.depth == this.methodIds.length) {
+            final int newLength = this.depth * 2;
+
+            this.begins = Arrays.copyOf(this.begins, newLength);
+            this.childNanos = Arrays.copyOf(this.childNanos, newLength);
+            this.descendants = Arrays.copyOf(this.descendants, newLength);
+            this.methodIds = Arrays.copyOf(this.methodIds, newLength);
+            this.cpuTimes = Arrays.copyOf(this.cpuTimes, newLength);
+            this.allocations = Arrays.copyOf(this.allocations, newLength);
+        }
+
+        this.begins[this.depth] = begin;
+        this.childNanos[this.depth] = 0;
+        this.descendants[this.depth] = 0;
+        this.methodIds[this.depth] = methodId;
+        this.cpuTimes[this.depth] = cpuTime;
+        this.allocations[this.depth] = allocated;
+        this.depth++;
+    }
+
+
+    /**
+     * Pops the frame pushed by {@link #push(int, long)} with the same arguments, and any frame above
+     * it which was left by a missed exit.
+     * 
+     * @param methodId An ID of the method exited
+     * @param begin A value passed to {@link #push(int, long)}
+     * @return {@code false} if no such frame exists
+     */
+    boolean pop(final int methodId, final long begin) {
+        for (int i = this.depth - 1; i >= 0; i--) {
+            if (this.methodIds[i] == methodId && this.begins[i] == begin) {
+                this.poppedChildNanos = this.childNanos[i];
+                this.poppedDescendants = this.descendants[i];
+                this.poppedCpuTime = this.cpuTimes[i];
+                this.poppedAllocated = this.allocations[i];
+                this.depth = i;
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Adds time taken by a child, and the child itself and its descendants, to the frame on the top,
+     * if any.
+     * 
+     * @param nanos Time taken by the child just popped
+     * @param calls Number of instrumented executions of the child, that is one plus its descendants
+     */
+    void addToParent(final long nanos, final long calls) {
+        if (this.depth > 0) {
+            this.childNanos[this.depth - 1] += nanos;
+            this.descendants[this.depth - 1] += calls;
+        }
+    }
+
+
+    /**
+     * @return Number of frames, which is also the depth of the frame just popped
+     */
+    int depth() {
+        return this.depth;
+    }
+
+
+    /**
+     * @return An ID of the method on the top, or {@code -1} if empty
+     */
+    int parentId() {
+        return this.depth > 0 ? this.methodIds[this.depth - 1] : -1;
+    }
+
+
+    /**
+     * @return Total time taken by the children of the frame just popped
+     */
+    long poppedChildNanos() {
+        return this.poppedChildNanos;
+    }
+
+
+    /**
+     * @return Number of instrumented executions nested in the frame just popped, at any depth
+     */
+    long poppedDescendants() {
+        return this.poppedDescendants;
+    }
+
+
+    /**
+     * @return CPU time of the thread when the frame just popped was pushed
+     */
+    long poppedCpuTime() {
+        return this.poppedCpuTime;
+    }
+
+
+    /**
+     * @return Bytes allocated by the thread when the frame just popped was pushed
+     */
+    long poppedAllocated() {
+        return this.poppedAllocated;
+    }
+
+}
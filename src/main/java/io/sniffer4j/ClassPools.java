@@ -0,0 +1,102 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.LoaderClassPath;
+
+
+/**
+ * Holds a {@link ClassPool} per {@link ClassLoader}, so that types referenced by a transformed class
+ * are resolved through the loader defining it, instead of through the system class path only.
+ * 
+ * <p>Loaders are weakly referenced, and a pool is replaced after {@link #TRANSFORMS_PER_POOL}
+ * transformations, so that classes cached by resolution do not pile up for the life of the JVM. A
+ * pool is NOT thread-safe, and MUST be used while synchronized on it; different loaders transform
+ * in parallel.
+ */
+final class ClassPools {
+
+    private static final int                TRANSFORMS_PER_POOL = 1_000;
+
+    private final Map<ClassLoader, Counted> pools               = new WeakHashMap<>();
+
+    private Counted                         bootstrap;
+
+
+    /**
+     * @param loader A loader defining the class to be transformed, or {@code null} for the bootstrap
+     *            loader
+     * @return A pool to transform a single class with
+     */
+    synchronized ClassPool acquire(final ClassLoader loader) {
+        Counted counted = Objects.isNull(loader) ? this.bootstrap : this.pools.get(loader);
+
+        if (Objects.isNull(counted) || counted.transforms == TRANSFORMS_PER_POOL) {
+            counted = new Counted(newClassPool(loader));
+
+            if (Objects.isNull(loader)) {
+                this.bootstrap = counted;
+            } else {
+                this.pools.put(loader, counted);
+            }
+        }
+
+        counted.transforms++;
+
+        return counted.pool;
+    }
+
+
+    private static ClassPool newClassPool(final ClassLoader loader) {
+        final ClassPool pool = new ClassPool(false);
+
+        // LoaderClassPath refers to the loader weakly, so the pool does not keep the loader alive
+        pool.appendClassPath(new LoaderClassPath(Objects.isNull(loader) ? ClassLoader.getSystemClassLoader() : loader));
+        pool.appendClassPath(new ClassClassPath(ClassPools.class));
+
+        return pool;
+    }
+
+
+    private static final class Counted {
+
+        private final ClassPool pool;
+
+        private int             transforms;
+
+
+        private Counted(final ClassPool pool) {
+            this.pool = pool;
+        }
+
+    }
+
+}
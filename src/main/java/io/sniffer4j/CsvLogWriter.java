@@ -0,0 +1,304 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Writes a log segment as CSV. Lines other than records and summaries start with <code>#</code>.
+ * 
+ * <p>Records are formatted into a reusable buffer, and the date-time part down to seconds is
+ * formatted only once per second, so that writing a record allocates almost nothing.
+ */
+final class CsvLogWriter implements LogWriter {
+
+    private static final long              NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long              NANOS_PER_MILLI  = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final DateTimeFormatter SECONDS          = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss");
+
+    private final StringBuilder            line             = new StringBuilder(128);
+
+    private final NanoClock                clock;
+
+    private final PrintWriter              writer;
+
+    private char[]                         chars            = new char[128];
+
+    private boolean                        callTree;
+
+    private boolean                        resources;
+
+    private long                           cachedSecond     = Long.MIN_VALUE;
+
+    private String                         cachedSecondText;
+
+
+    CsvLogWriter(final PrintWriter writer, final NanoClock clock) {
+        this.writer = writer;
+        this.clock = clock;
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeHeader(io.sniffer4j.LogBroker.Mode, boolean, boolean)
+     */
+    @Override
+    public void writeHeader(final LogBroker.Mode mode, final boolean callTree, final boolean resources) {
+        this.callTree = callTree;
+        this.resources = resources;
+
+        if (mode == LogBroker.Mode.AGGREGATE) {
+            this.writer.println(String.join(",", MethodStatistics.columns(callTree, resources)));
+        } else {
+            this.writer.println((callTree
+                ? "thread_name,thread_id,method_id,begin_time,end_time,time_taken,parent_method_id,depth,self_time"
+                : "thread_name,thread_id,method_id,begin_time,end_time,time_taken")
+                + (resources ? ",cpu_time,allocated_bytes" : "")
+                + ",exception");
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSampling(java.lang.String)
+     */
+    @Override
+    public void writeSampling(final String description) {
+        this.writer.println("# sampling," + description);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeOverhead(long)
+     */
+    @Override
+    public void writeOverhead(final long nanos) {
+        this.writer.println("# overhead_ns," + nanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeMethod(io.sniffer4j.MethodRegistry.Entry)
+     */
+    @Override
+    public void writeMethod(final MethodRegistry.Entry anEntry) {
+        this.writer.println("# method," + anEntry.toString());
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeRecord(io.sniffer4j.Record)
+     */
+    @Override
+    public void writeRecord(final Record aRecord) {
+        final StringBuilder builder = this.line;
+        builder.setLength(0);
+
+        builder.append(aRecord.threadName).append(',')
+            .append(aRecord.threadId).append(',')
+            .append(aRecord.methodId).append(',');
+        appendLocalDateTime(builder, aRecord.begin);
+        builder.append(',');
+        appendLocalDateTime(builder, aRecord.end);
+        builder.append(',');
+        appendMillis(builder, aRecord.end - aRecord.begin);
+
+        if (this.callTree) {
+            builder.append(',')
+                .append(aRecord.parentId).append(',')
+                .append(aRecord.depth).append(',');
+            appendMillis(builder, aRecord.self);
+        }
+
+        if (this.resources) {
+            builder.append(',');
+            appendMillis(builder, aRecord.cpuTime);
+            builder.append(',')
+                .append(aRecord.allocated);
+        }
+
+        // Empty if exited normally
+        builder.append(',');
+
+        if (Objects.nonNull(aRecord.thrown)) {
+            builder.append(aRecord.thrown);
+        }
+
+        printLine(builder);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeInterval(long, long)
+     */
+    @Override
+    public void writeInterval(final long begin, final long end) {
+        this.writer.println("# interval," + this.clock.toLocalDateTime(begin) + "," + this.clock.toLocalDateTime(end));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeStatistics(long[])
+     */
+    @Override
+    public void writeStatistics(final long[] summary) {
+        final StringJoiner joiner = new StringJoiner(",");
+
+        for (final long each : summary) {
+            joiner.add(String.valueOf(each));
+        }
+
+        this.writer.println(joiner.toString());
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeEdge(int, int, long, long)
+     */
+    @Override
+    public void writeEdge(final int parentId, final int childId, final long count, final long totalNanos) {
+        this.writer.println("# edge," + parentId + "," + childId + "," + count + "," + totalNanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCalls(int, long, long)
+     */
+    @Override
+    public void writeCalls(final int methodId, final long calls, final long sampled) {
+        this.writer.println("# calls," + methodId + "," + calls + "," + sampled);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCache(long, long)
+     */
+    @Override
+    public void writeCache(final long hits, final long misses) {
+        this.writer.println(String.format("# cache_hits=%d,cache_misses=%d", hits, misses));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSpill(long, long)
+     */
+    @Override
+    public void writeSpill(final long spilled, final long dropped) {
+        this.writer.println(String.format("# spilled=%d,spill_dropped=%d", spilled, dropped));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeTrailer(long, long)
+     */
+    @Override
+    public void writeTrailer(final long dropped, final long overwritten) {
+        this.writer.println(String.format("# dropped=%d,overwritten=%d", dropped, overwritten));
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#flush()
+     */
+    @Override
+    public void flush() {
+        this.writer.flush();
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#close()
+     */
+    @Override
+    public void close() {
+        this.writer.close();
+    }
+
+
+    private static void appendFraction(final StringBuilder builder, final long fraction, final long scale) {
+        for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+            builder.append((char) ('0' + ((fraction / divisor) % 10)));
+        }
+    }
+
+
+    private void appendLocalDateTime(final StringBuilder builder, final long nanoTime) {
+        final long epochNanos = this.clock.toEpochNanos(nanoTime);
+        final long second = Math.floorDiv(epochNanos, NANOS_PER_SECOND);
+        final long nano = Math.floorMod(epochNanos, NANOS_PER_SECOND);
+
+        if (second != this.cachedSecond) {
+            final Instant anInstant = Instant.ofEpochSecond(second);
+
+            this.cachedSecond = second;
+            this.cachedSecondText = SECONDS.format(LocalDateTime.ofInstant(anInstant, this.clock.zone()));
+        }
+
+        builder.append(this.cachedSecondText).append('.');
+
+        // Always 9 digits of fraction, which is still ISO-8601
+        appendFraction(builder, nano, NANOS_PER_SECOND);
+    }
+
+
+    /**
+     * Appends nanoseconds as milliseconds with 6 digits of fraction, so that sub-millisecond calls
+     * are not truncated to zero.
+     */
+    private static void appendMillis(final StringBuilder builder, final long nanos) {
+        if (nanos < 0) {
+            builder.append('-');
+        }
+
+        final long absolute = Math.abs(nanos);
+
+        builder.append(absolute / NANOS_PER_MILLI).append('.');
+        appendFraction(builder, absolute % NANOS_PER_MILLI, NANOS_PER_MILLI);
+    }
+
+
+    private void printLine(final StringBuilder builder) {
+        final int length = builder.length();
+
+        if (length > this.chars.length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+
+        builder.getChars(0, length, this.chars, 0);
+
+        this.writer.write(this.chars, 0, length);
+        this.writer.println();
+    }
+
+}
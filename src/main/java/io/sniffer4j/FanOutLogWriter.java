@@ -0,0 +1,199 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.List;
+
+
+/**
+ * Writes everything into all of sinks selected by {@link Options#SINKS}.
+ */
+final class FanOutLogWriter implements LogWriter {
+
+    private final LogWriter[] writers;
+
+
+    /**
+     * @param writers Writers of the sinks
+     */
+    FanOutLogWriter(final List<LogWriter> writers) {
+        this.writers = writers.toArray(new LogWriter[0]);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeHeader(io.sniffer4j.LogBroker.Mode, boolean, boolean)
+     */
+    @Override
+    public void writeHeader(final LogBroker.Mode mode, final boolean callTree, final boolean resources) {
+        for (final LogWriter each : this.writers) {
+            each.writeHeader(mode, callTree, resources);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSampling(java.lang.String)
+     */
+    @Override
+    public void writeSampling(final String description) {
+        for (final LogWriter each : this.writers) {
+            each.writeSampling(description);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeOverhead(long)
+     */
+    @Override
+    public void writeOverhead(final long nanos) {
+        for (final LogWriter each : this.writers) {
+            each.writeOverhead(nanos);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeMethod(io.sniffer4j.MethodRegistry.Entry)
+     */
+    @Override
+    public void writeMethod(final MethodRegistry.Entry anEntry) {
+        for (final LogWriter each : this.writers) {
+            each.writeMethod(anEntry);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeRecord(io.sniffer4j.Record)
+     */
+    @Override
+    public void writeRecord(final Record aRecord) {
+        for (final LogWriter each : this.writers) {
+            each.writeRecord(aRecord);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeInterval(long, long)
+     */
+    @Override
+    public void writeInterval(final long begin, final long end) {
+        for (final LogWriter each : this.writers) {
+            each.writeInterval(begin, end);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeStatistics(long[])
+     */
+    @Override
+    public void writeStatistics(final long[] summary) {
+        for (final LogWriter each : this.writers) {
+            each.writeStatistics(summary);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeEdge(int, int, long, long)
+     */
+    @Override
+    public void writeEdge(final int parentId, final int childId, final long count, final long totalNanos) {
+        for (final LogWriter each : this.writers) {
+            each.writeEdge(parentId, childId, count, totalNanos);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCalls(int, long, long)
+     */
+    @Override
+    public void writeCalls(final int methodId, final long calls, final long sampled) {
+        for (final LogWriter each : this.writers) {
+            each.writeCalls(methodId, calls, sampled);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCache(long, long)
+     */
+    @Override
+    public void writeCache(final long hits, final long misses) {
+        for (final LogWriter each : this.writers) {
+            each.writeCache(hits, misses);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSpill(long, long)
+     */
+    @Override
+    public void writeSpill(final long spilled, final long dropped) {
+        for (final LogWriter each : this.writers) {
+            each.writeSpill(spilled, dropped);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeTrailer(long, long)
+     */
+    @Override
+    public void writeTrailer(final long dropped, final long overwritten) {
+        for (final LogWriter each : this.writers) {
+            each.writeTrailer(dropped, overwritten);
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#flush()
+     */
+    @Override
+    public void flush() {
+        for (final LogWriter each : this.writers) {
+            each.flush();
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#close()
+     */
+    @Override
+    public void close() {
+        for (final LogWriter each : this.writers) {
+            each.close();
+        }
+    }
+
+}
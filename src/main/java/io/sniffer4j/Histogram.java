@@ -0,0 +1,115 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A latency histogram with log-linear buckets in the manner of HdrHistogram.
+ * 
+ * <p>Values below {@value #SUB_BUCKET_COUNT} are counted exactly, and larger values are counted in
+ * buckets whose width is at most 1/{@value #HALF_SUB_BUCKET_COUNT} of the value. The bucket array
+ * grows only as far as the largest recorded value requires. This class is NOT thread-safe.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKET_BITS       = 6;
+
+    private static final int SUB_BUCKET_COUNT      = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    private static final int SUB_BUCKET_MASK       = SUB_BUCKET_COUNT - 1;
+
+    private long[]           counts                = new long[SUB_BUCKET_COUNT];
+
+    private long             totalCount;
+
+
+    private static int indexOf(final long value) {
+        final int msb = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+        final int shift = msb - (SUB_BUCKET_BITS - 1);
+
+        return (shift * HALF_SUB_BUCKET_COUNT) + (int) (value >>> shift);
+    }
+
+
+    private static long highestValueOf(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = (index / HALF_SUB_BUCKET_COUNT) - 1;
+        final long subBucket = (index % HALF_SUB_BUCKET_COUNT) + HALF_SUB_BUCKET_COUNT;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+
+    /**
+     * @param value A non-negative value to be counted
+     */
+    void record(final long value) {
+        final int index = indexOf(Math.max(value, 0));
+
+        if (index >= this.counts.length) {
+            this.counts = Arrays.copyOf(this.counts, index + 1);
+        }
+
+        this.counts[index]++;
+        this.totalCount++;
+    }
+
+
+    /**
+     * @param percentile A percentile in range of {@code 0.0} to {@code 100.0}
+     * @return The highest value equivalent to the specified percentile, or {@code 0} if empty
+     */
+    long valueAtPercentile(final double percentile) {
+        final long target = Math.max(1, (long) Math.ceil((Math.min(percentile, 100.0) / 100.0) * this.totalCount));
+        long cumulative = 0;
+
+        for (int i = 0; i < this.counts.length; i++) {
+            cumulative += this.counts[i];
+
+            if (cumulative >= target) {
+                return highestValueOf(i);
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Clears all counts, keeping the allocated buckets.
+     */
+    void reset() {
+        Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+    }
+
+}
@@ -24,24 +24,23 @@
 package io.sniffer4j;
 
 
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
-import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.StringJoiner;
-import java.util.concurrent.BlockingQueue;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 
 /**
@@ -49,13 +48,58 @@ import java.util.concurrent.TimeUnit;
  */
 public class LogBroker {
 
-    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>(1_024);
+    private static final long             IDLE_NANOS  = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int              STRIPE_FACTOR = 16;
+
+    private final Queue<RingBuffer>       buffers     = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<RingBuffer> localBuffer = ThreadLocal.withInitial(this::newRingBuffer);
+
+    private final Aggregator              aggregator  = new Aggregator(Options.CALLTREE.value(), ThreadResources.isSupported());
+
+    private final Queue<CompletableFuture<List<long[]>>> snapshotRequests = new ConcurrentLinkedQueue<>();
+
+    private final AtomicReferenceArray<SharedBuffer> stripes = new AtomicReferenceArray<>(VirtualThreads.isSupported() ? VirtualThreads.stripes() : 0);
+
+    private final LongAdder               virtualDropped = new LongAdder();
+
+    private final SharedBuffer            spill       = Options.SPILLSIZE.value() > 0 ? new SharedBuffer(SharedBuffer.capacityOf(Options.SPILLSIZE.value())) : null;
+
+    private final ExecutorService         consumer;
+
+    private final long                    thresholdNanos;
+
+    private final boolean                 resources;
+
+    private final long                    overheadNanos;
+
+    private volatile long                 retiredDropped;
+
+    private volatile long                 retiredOverwritten;
+
+    private volatile long                 consumedRecords;
+
+    private volatile long                 caughtUpAt  = System.nanoTime();
 
-    private final ExecutorService       consumer;
+    private volatile boolean              stopped;
+
+    private long                          intervalBegin;
+
+    private int                           segment;
+
+    private LogWriter                     writer;
+
+    private int                           writtenMethods;
 
 
     private LogBroker() {
         this.consumer = Executors.newSingleThreadExecutor(this::newDaemonThread);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(Options.THRESHOLD.value(), 0));
+        this.resources = ThreadResources.isSupported();
+
+        // Measured by this instance before the overhead is known, so that it is not compensated
+        this.overheadNanos = Options.CALIBRATE.value() ? Calibration.measure(this) : 0;
     }
 
 
@@ -68,22 +112,271 @@ public class LogBroker {
 
 
     /**
-     * @param aThread An instance of {@link Thread} that called this method
-     * @param className Name of class which called this method
-     * @param methodName Name of method which called this method
-     * @param begin An instant at the beginning of method execution
-     * @param end An instant at the end of method execution
+     * Stores a measurement into the ring buffer owned by the calling thread without any lock or
+     * allocation, or into a stripe shared with other virtual threads if it is a virtual thread.
+     * 
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     * @param end A value of {@link System#nanoTime()} at the end of method execution
+     */
+    public void submit(final int methodId, final long begin, final long end) {
+        submit(methodId, begin, end, null);
+    }
+
+
+    /**
+     * Stores a measurement of an execution which exited by throwing. The class name of the exception
+     * is cached by {@link Class}, so this does not allocate either but the first time.
+     * 
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     * @param end A value of {@link System#nanoTime()} when the exception was caught by the probe
+     * @param thrown An exception thrown, or {@code null} if exited normally
      */
-    public void submit(final Thread aThread, final String className, final String methodName, final Instant begin, final Instant end) {
-        final Record aRecord = new Record();
-        aRecord.threadName = aThread.getName();
-        aRecord.threadId = aThread.getId();
-        aRecord.className = className;
-        aRecord.methodName = methodName;
+    public void submit(final int methodId, final long begin, final long end, final Throwable thrown) {
+        final Thread current = Thread.currentThread();
+
+        if (VirtualThreads.isVirtual(current)) {
+            submitShared(current, methodId, begin, end, thrown);
+            return;
+        }
+
+        final RingBuffer buffer = this.localBuffer.get();
+        final Record aRecord = buffer.claim();
+
+        if (Objects.isNull(aRecord)) {
+            return;
+        }
+
+        aRecord.methodId = methodId;
         aRecord.begin = begin;
         aRecord.end = end;
+        aRecord.parentId = -1;
+        aRecord.depth = 0;
+        aRecord.self = end - begin;
+        aRecord.thrown = Objects.isNull(thrown) ? null : thrown.getClass().getName();
+        aRecord.cpuTime = 0;
+        aRecord.allocated = 0;
+
+        buffer.publish();
+    }
+
+
+    /**
+     * @return {@code true} if probes call {@link #enter(int, long)} and {@link #exit(int, long, long)}
+     *         instead of {@link #submit(int, long, long)}, which is with {@link Options#CALLTREE},
+     *         {@link Options#RESOURCES} or {@link Options#CALIBRATE}
+     */
+    static boolean usesCallStack() {
+        return Options.CALLTREE.value().booleanValue()
+            || Options.RESOURCES.value().booleanValue()
+            || Options.CALIBRATE.value().booleanValue();
+    }
+
+
+    /**
+     * Pushes a frame onto the call stack of the calling thread, which is used with
+     * {@link Options#CALLTREE} and {@link Options#RESOURCES}. With the latter, CPU time and allocated
+     * bytes of the thread are read at last, so that pushing the frame is not measured.
+     * 
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     */
+    public void enter(final int methodId, final long begin) {
+        // Virtual threads have no call stack, which would be as many as them
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            return;
+        }
+
+        enter(this.localBuffer.get(), methodId, begin);
+    }
+
+
+    /**
+     * @param buffer A ring buffer of the calling thread
+     * @see #enter(int, long)
+     */
+    void enter(final RingBuffer buffer, final int methodId, final long begin) {
+        final CallStack callStack = buffer.callStack();
+
+        if (this.resources) {
+            callStack.push(methodId, begin, ThreadResources.cpuTime(), ThreadResources.allocatedBytes());
+        } else {
+            callStack.push(methodId, begin);
+        }
+    }
+
+
+    /**
+     * Pops the frame pushed by {@link #enter(int, long)}, and stores a measurement with its parent,
+     * depth and self time, which excludes time taken by instrumented children. With
+     * {@link Options#CALIBRATE}, the cost of probes of instrumented descendants is subtracted from
+     * time taken and CPU time, and the end is moved earlier by that amount.
+     * 
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value passed to {@link #enter(int, long)}
+     * @param end A value of {@link System#nanoTime()} at the end of method execution
+     */
+    public void exit(final int methodId, final long begin, final long end) {
+        exit(methodId, begin, end, null);
+    }
+
+
+    /**
+     * Pops the frame pushed by {@link #enter(int, long)} like {@link #exit(int, long, long)}, for an
+     * execution which exited by throwing.
+     * 
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value passed to {@link #enter(int, long)}
+     * @param end A value of {@link System#nanoTime()} when the exception was caught by the probe
+     * @param thrown An exception thrown, or {@code null} if exited normally
+     */
+    public void exit(final int methodId, final long begin, final long end, final Throwable thrown) {
+        final Thread current = Thread.currentThread();
+
+        if (VirtualThreads.isVirtual(current)) {
+            if (end - begin >= this.thresholdNanos) {
+                submitShared(current, methodId, begin, end, thrown);
+            }
+
+            return;
+        }
+
+        exit(this.localBuffer.get(), methodId, begin, end, thrown);
+    }
+
+
+    /**
+     * @param buffer A ring buffer of the calling thread
+     * @see #exit(int, long, long, Throwable)
+     */
+    void exit(final RingBuffer buffer, final int methodId, final long begin, final long end, final Throwable thrown) {
+        // Read first, so that maintaining the stack is not measured
+        final long cpuTime = this.resources ? ThreadResources.cpuTime() : 0;
+        final long allocated = this.resources ? ThreadResources.allocatedBytes() : 0;
+        final CallStack callStack = buffer.callStack();
+
+        if (!callStack.pop(methodId, begin)) {
+            return;
+        }
+
+        final long descendants = callStack.poppedDescendants();
+        final long elapsed = Math.max(end - begin - this.overheadNanos * descendants, 0);
+        final long self = Math.max(elapsed - callStack.poppedChildNanos(), 0);
+
+        callStack.addToParent(elapsed, descendants + 1);
+
+        // Children are added to the parent even if they are shorter than the threshold
+        if (elapsed < this.thresholdNanos) {
+            return;
+        }
+
+        final Record aRecord = buffer.claim();
+
+        if (Objects.isNull(aRecord)) {
+            return;
+        }
+
+        aRecord.methodId = methodId;
+        aRecord.begin = begin;
+        aRecord.end = begin + elapsed;
+        aRecord.parentId = callStack.parentId();
+        aRecord.depth = callStack.depth();
+        aRecord.self = self;
+        aRecord.thrown = Objects.isNull(thrown) ? null : thrown.getClass().getName();
+        aRecord.cpuTime = this.resources ? Math.max(cpuTime - callStack.poppedCpuTime() - this.overheadNanos * descendants, 0) : 0;
+        aRecord.allocated = this.resources ? allocated - callStack.poppedAllocated() : 0;
+
+        buffer.publish();
+    }
+
+
+    /**
+     * @return Total number of records dropped because a ring buffer was full
+     */
+    long droppedRecords() {
+        long total = this.retiredDropped + this.virtualDropped.sum();
+
+        for (final RingBuffer buffer : this.buffers) {
+            total += buffer.dropped();
+        }
+
+        return total;
+    }
+
+
+    /**
+     * @return Total number of records drained from ring buffers by the writer thread
+     */
+    long consumedRecords() {
+        return this.consumedRecords;
+    }
+
+
+    /**
+     * @return Total number of records waiting in ring buffers, stripes of virtual threads and the
+     *         spill buffer
+     */
+    long pendingRecords() {
+        long total = Objects.isNull(this.spill) ? 0 : this.spill.size();
+
+        for (int i = 0; i < this.stripes.length(); i++) {
+            final SharedBuffer stripe = this.stripes.get(i);
+            total += Objects.isNull(stripe) ? 0 : stripe.size();
+        }
+
+        for (final RingBuffer buffer : this.buffers) {
+            total += buffer.size();
+        }
+
+        return total;
+    }
+
+
+    /**
+     * @return Nanoseconds since the writer thread last found ring buffers, stripes of virtual threads
+     *         and the spill buffer all empty, or zero if no record is waiting
+     */
+    long writerLagNanos() {
+        return pendingRecords() == 0 ? 0 : System.nanoTime() - this.caughtUpAt;
+    }
+
+
+    /**
+     * @return Total number of records spilled because a ring buffer was full, with
+     *         {@link Options#SPILLSIZE}
+     */
+    long spilledRecords() {
+        return Objects.isNull(this.spill) ? 0 : this.spill.offered();
+    }
+
+
+    /**
+     * @return Total number of records overwritten before being written to the log
+     */
+    long overwrittenRecords() {
+        long total = this.retiredOverwritten;
+
+        for (final RingBuffer buffer : this.buffers) {
+            total += buffer.overwritten();
+        }
+
+        return total;
+    }
+
 
-        this.queue.offer(aRecord);
+    /**
+     * Requests the writer thread to summarize statistics aggregated so far, which are those of the
+     * current interval in aggregate mode, or those since startup in raw mode with
+     * {@link Options#HTTPPORT}.
+     * 
+     * @return A future completed with {@link MethodStatistics#summary()} of each method measured
+     */
+    CompletableFuture<List<long[]>> snapshot() {
+        final CompletableFuture<List<long[]>> request = new CompletableFuture<>();
+        this.snapshotRequests.add(request);
+
+        return request;
     }
 
 
@@ -96,8 +389,42 @@ public class LogBroker {
     }
 
 
-    private String csvFileHeader() {
-        return "thread_name,thread_id,begin_time,end_time,time_taken";
+    private int drainAll(final Record scratch, final Consumer<Record> action) {
+        int drained = 0;
+
+        for (final Iterator<RingBuffer> it = this.buffers.iterator(); it.hasNext();) {
+            final RingBuffer buffer = it.next();
+            final int count = buffer.drain(scratch, action);
+
+            drained += count;
+            this.consumedRecords += count;
+
+            if (buffer.isAbandoned()) {
+                it.remove();
+                this.retiredDropped += buffer.dropped();
+                this.retiredOverwritten += buffer.overwritten();
+            }
+        }
+
+        for (int i = 0; i < this.stripes.length(); i++) {
+            final SharedBuffer stripe = this.stripes.get(i);
+
+            if (Objects.nonNull(stripe)) {
+                final int count = stripe.drain(scratch, action);
+
+                drained += count;
+                this.consumedRecords += count;
+            }
+        }
+
+        if (Objects.nonNull(this.spill)) {
+            final int count = this.spill.drain(scratch, action);
+
+            drained += count;
+            this.consumedRecords += count;
+        }
+
+        return drained;
     }
 
 
@@ -109,19 +436,167 @@ public class LogBroker {
     }
 
 
-    private void loopUntilInterrupt(final PrintWriter writer) {
-        while (true) {
-            try {
-                Record aRecord = this.queue.take();
+    private RingBuffer newRingBuffer() {
+        final RingBuffer buffer = new RingBuffer(Thread.currentThread(), Options.BUFFERSIZE.value(), Options.OVERFLOW.value(), this.spill);
+        this.buffers.add(buffer);
+
+        return buffer;
+    }
+
+
+    private Consumer<Record> newRecordConsumer() {
+        if (Options.MODE.value() == Mode.AGGREGATE) {
+            return this.aggregator;
+        }
+
+        final Consumer<Record> recordWriter = aRecord -> {
+            writeMethodsUpTo(aRecord.methodId);
+            this.writer.writeRecord(aRecord);
+        };
+
+        // The aggregator is otherwise unused in raw mode, so it is fed only when someone can query it
+        return Options.HTTPPORT.value() > 0 ? recordWriter.andThen(this.aggregator) : recordWriter;
+    }
+
+
+    /**
+     * Drains all ring buffers repeatedly, and flushes the writer once per batch: when at least
+     * {@link Options#BATCHSIZE} records are pending, or {@link Options#MAXLATENCY} has passed
+     * since the first pending one was drained.
+     */
+    private void loopUntilStopped() throws IOException {
+        final Record scratch = new Record();
+        final Consumer<Record> action = newRecordConsumer();
+        final int batchSize = Math.max(Options.BATCHSIZE.value(), 1);
+        final long maxLatency = TimeUnit.MILLISECONDS.toNanos(Options.MAXLATENCY.value());
+        final long interval = TimeUnit.SECONDS.toNanos(Options.INTERVAL.value());
+        long deadline = System.nanoTime() + interval;
+        long commitDeadline = 0;
+        int pending = 0;
+
+        openSegment();
+
+        try {
+            while (!this.stopped) {
+                final int drained = drainAll(scratch, action);
+                final long now = System.nanoTime();
+
+                if (pending == 0) {
+                    commitDeadline = now + maxLatency;
+                }
+
+                pending += drained;
+
+                if (pending >= batchSize || (pending > 0 && now - commitDeadline >= 0)) {
+                    this.writer.flush();
+                    pending = 0;
+                }
+
+                if (!this.snapshotRequests.isEmpty()) {
+                    serveSnapshots();
+                }
+
+                if (drained == 0) {
+                    this.caughtUpAt = now;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+
+                if (interval > 0 && now - deadline >= 0) {
+                    rollOver();
+                    deadline += interval;
+                }
+            }
+
+            drainAll(scratch, action);
+        } finally {
+            closeSegment();
+        }
+    }
+
+
+    private void closeSegment() {
+        if (Options.MODE.value() == Mode.AGGREGATE) {
+            writeSummary();
+        } else if (Sampler.isEnabled()) {
+            writeSampledCalls();
+        }
+
+        final TransformCache cache = TransformCache.instance();
+
+        if (Objects.nonNull(cache)) {
+            this.writer.writeCache(cache.hits(), cache.misses());
+        }
+
+        if (Objects.nonNull(this.spill)) {
+            this.writer.writeSpill(this.spill.offered(), this.spill.rejected());
+        }
+
+        this.writer.writeTrailer(droppedRecords(), overwrittenRecords());
+        this.writer.close();
+    }
+
+
+    private void openSegment() throws IOException {
+        final Path logfile = Options.LOGFILE.value();
+        final Path path = Options.ROLLOVER.value() ? logfile.resolveSibling(logfile.getFileName() + "." + this.segment) : logfile;
+
+        this.writer = openWriter(path);
+        this.writer.writeHeader(Options.MODE.value(), Options.CALLTREE.value(), this.resources);
+
+        if (Sampler.isEnabled()) {
+            this.writer.writeSampling(Sampler.describe());
+        }
+
+        if (this.overheadNanos > 0) {
+            this.writer.writeOverhead(this.overheadNanos);
+        }
+
+        this.writtenMethods = 0;
+        this.intervalBegin = System.nanoTime();
+    }
+
 
-                writer.println(aRecord.toString());
-                writer.flush();
-            } catch (@SuppressWarnings("unused") InterruptedException exception) {
-                Thread.interrupted();
+    /**
+     * Opens the log segment in {@link Options#FORMAT}, or all of {@link Options#SINKS} each with
+     * its own thread. Only the first sink writes into the log file as it is, and the others into
+     * <code>&lt;logpath&gt;.&lt;sink&gt;</code>, so that they do not overwrite each other.
+     */
+    private LogWriter openWriter(final Path path) throws IOException {
+        final List<String> sinks = Options.SINKS.value();
+
+        if (sinks.isEmpty()) {
+            return LogWriter.open(path, Options.FORMAT.value(), NanoClock.system());
+        }
+
+        final List<LogWriter> writers = new ArrayList<>();
 
-                break;
+        for (final String each : sinks) {
+            final String sink = each.trim();
+            final Path sinkPath = writers.isEmpty() ? path : path.resolveSibling(path.getFileName() + "." + sink);
+
+            try {
+                writers.add(new AsyncLogWriter(sink, LogWriter.open(sinkPath, sink, NanoClock.system()), Options.SINKQUEUE.value()));
+            } catch (final IllegalArgumentException cause) {
+                System.err.println(cause.getMessage());
             }
         }
+
+        return new FanOutLogWriter(writers);
+    }
+
+
+    /**
+     * Finishes the current interval: starts a new log segment if {@link Options#ROLLOVER} is
+     * enabled, otherwise writes the summary of the interval in aggregate mode.
+     */
+    private void rollOver() throws IOException {
+        if (Options.ROLLOVER.value()) {
+            closeSegment();
+            this.segment++;
+            openSegment();
+        } else if (Options.MODE.value() == Mode.AGGREGATE) {
+            writeSummary();
+        }
     }
 
 
@@ -131,30 +606,46 @@ public class LogBroker {
             @Override
             public void run() {
                 final ExecutorService consumer = LogBroker.this.consumer;
+
+                // Not interrupting, which would close FileChannel, lets the consumer drain all ring
+                // buffers once more and write the trailer
+                LogBroker.this.stopped = true;
                 consumer.shutdown();
 
                 try {
-                    consumer.awaitTermination(1_000, TimeUnit.MILLISECONDS);
+                    long consumed;
+
+                    // Keeps waiting as long as the consumer or sinks make progress on the remaining
+                    // backlog, since the consumer closes sinks without waiting for them
+                    do {
+                        consumed = LogBroker.this.consumedRecords + AsyncLogWriter.deliveredRecords();
+                    } while (!(consumer.awaitTermination(1_000, TimeUnit.MILLISECONDS) && AsyncLogWriter.awaitClosed(1_000))
+                        && consumed != LogBroker.this.consumedRecords + AsyncLogWriter.deliveredRecords());
                 } catch (@SuppressWarnings("unused") InterruptedException exception) {
                     Thread.interrupted();
                 }
-
-                if (!consumer.isTerminated()) {
-                    consumer.shutdownNow();
-                }
             }
 
         });
     }
 
 
+    private void serveSnapshots() {
+        CompletableFuture<List<long[]>> request;
+
+        while (Objects.nonNull(request = this.snapshotRequests.poll())) {
+            final List<long[]> summaries = new ArrayList<>();
+            this.aggregator.forEachNonEmpty(aStatistics -> summaries.add(aStatistics.summary()));
+
+            request.complete(summaries);
+        }
+    }
+
+
     private void startConsumerThread() {
         this.consumer.execute(() -> {
-            try (final BufferedWriter buffer = Files.newBufferedWriter(Options.LOGFILE.value(), CREATE, TRUNCATE_EXISTING);
-                final PrintWriter writer = new PrintWriter(buffer)) {
-                writer.println(csvFileHeader());
-
-                loopUntilInterrupt(writer);
+            try {
+                loopUntilStopped();
             } catch (final IOException exception) {
                 throw new UncheckedIOException(exception);
             }
@@ -162,83 +653,117 @@ public class LogBroker {
     }
 
 
-    private static final class SingletonHolder {
+    /**
+     * Allocates a stripe on the first use, so that a JVM running no virtual thread has none. Threads
+     * racing for the same stripe may allocate it twice, and all of them use the one set first.
+     * 
+     * @param index An index of the stripe
+     * @return A buffer shared by virtual threads
+     */
+    private SharedBuffer stripeAt(final int index) {
+        final SharedBuffer stripe = this.stripes.get(index);
 
-        private static final LogBroker SINGLETON = new LogBroker();
+        if (Objects.nonNull(stripe)) {
+            return stripe;
+        }
 
+        // Each stripe is shared by many threads
+        this.stripes.compareAndSet(index, null, new SharedBuffer(Options.BUFFERSIZE.value() * STRIPE_FACTOR));
+
+        return this.stripes.get(index);
     }
 
 
-    private static final class Record {
+    /**
+     * Stores a measurement of a virtual thread into the stripe selected by its ID, or the spill
+     * buffer if full. Thread names of virtual threads are shared strings, usually empty.
+     */
+    private void submitShared(final Thread thread, final int methodId, final long begin, final long end, final Throwable thrown) {
+        final long threadId = thread.getId();
+        final String threadName = thread.getName();
+        final String thrownName = Objects.isNull(thrown) ? null : thrown.getClass().getName();
+        final SharedBuffer stripe = stripeAt((int) threadId & (this.stripes.length() - 1));
+
+        if (stripe.offer(threadId, threadName, methodId, begin, end, thrownName)) {
+            return;
+        }
 
-        private Instant begin;
+        if (Objects.isNull(this.spill) || !this.spill.offer(threadId, threadName, methodId, begin, end, thrownName)) {
+            this.virtualDropped.increment();
+        }
+    }
 
-        private Instant end;
 
-        private String  className;
+    private void writeMethodsUpTo(final int methodId) {
+        final MethodRegistry registry = MethodRegistry.instance();
 
-        private String  methodName;
+        // Methods are written once per segment, in order of ID, before any record refers to them
+        while (this.writtenMethods <= methodId) {
+            final MethodRegistry.Entry anEntry = registry.entry(this.writtenMethods++);
 
-        private long    threadId;
+            if (Objects.nonNull(anEntry)) {
+                this.writer.writeMethod(anEntry);
+            }
+        }
+    }
 
-        private String  threadName;
 
+    private void writeSampledCalls() {
+        final int registered = MethodRegistry.instance().size();
 
-        private String begin() {
-            return toLocalDateTime(this.begin);
+        // Total and measured invocations so far, so that readers can extrapolate the counts
+        for (int methodId = 0; methodId < registered; methodId++) {
+            if (Sampler.calls(methodId) > 0) {
+                writeMethodsUpTo(methodId);
+                this.writer.writeCalls(methodId, Sampler.calls(methodId), Sampler.sampled(methodId));
+            }
         }
+    }
 
 
-        private String end() {
-            return toLocalDateTime(this.end);
-        }
-
+    private void writeSummary() {
+        final long now = System.nanoTime();
 
-        private String duration() {
-            return String.valueOf(Duration.between(this.begin, this.end).toMillis());
-        }
+        this.writer.writeInterval(this.intervalBegin, now);
+        this.intervalBegin = now;
 
+        this.aggregator.forEachNonEmpty(aStatistics -> {
+            writeMethodsUpTo(aStatistics.methodId());
+            this.writer.writeStatistics(aStatistics.summary());
+        });
 
-        private String className() {
-            return this.className;
-        }
+        this.aggregator.forEachEdge(anEdge -> {
+            writeMethodsUpTo(Math.max(anEdge.parentId, anEdge.childId));
+            this.writer.writeEdge(anEdge.parentId, anEdge.childId, anEdge.count, anEdge.sum);
+        });
 
+        this.writer.flush();
+        this.aggregator.reset();
+    }
 
-        private String methodName() {
-            return this.methodName;
-        }
 
+    /**
+     * Output modes of {@link LogBroker}.
+     */
+    public enum Mode {
 
-        private String threadId() {
-            return String.valueOf(this.threadId);
-        }
+        /**
+         * Outputs one line per method execution.
+         */
+        RAW,
 
+        /**
+         * Outputs only summaries of execution time per method.
+         */
+        AGGREGATE;
 
-        private String threadName() {
-            return this.threadName;
-        }
+    }
 
 
-        private String toLocalDateTime(final Instant anInstant) {
-            return LocalDateTime.ofInstant(anInstant, ZoneId.systemDefault()).toString();
-        }
+    private static final class SingletonHolder {
 
+        private static final LogBroker SINGLETON = new LogBroker();
 
-        /**
-         * @see java.lang.Object#toString()
-         */
-        @Override
-        public String toString() {
-            return new StringJoiner(",")
-                .add(threadName())
-                .add(threadId())
-                .add(className())
-                .add(methodName())
-                .add(begin())
-                .add(end())
-                .add(duration())
-                .toString();
-        }
     }
 
 }
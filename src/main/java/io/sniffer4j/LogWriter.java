@@ -0,0 +1,233 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+
+/**
+ * Writes everything {@link LogBroker} outputs into a log segment in a specific {@link Format}, or
+ * into a sink selected by {@link Options#SINKS}.
+ * 
+ * <p>Implementations are used by a single thread at a time, and report I/O errors as
+ * {@link java.io.UncheckedIOException}. Sinks other than built-in ones are looked up by
+ * {@link ServiceLoader} as {@link Provider}s.
+ */
+public interface LogWriter extends AutoCloseable {
+
+    /**
+     * @param path A path of the log segment, which is truncated if exists
+     * @param format A format of the log segment
+     * @param clock A clock to convert values of {@link System#nanoTime()} with
+     * @return A new writer
+     * @throws IOException If failed to open the segment
+     */
+    static LogWriter open(final Path path, final Format format, final NanoClock clock) throws IOException {
+        switch (format) {
+        case BINARY:
+            return new BinaryLogWriter(path, clock);
+        case CSV:
+        default:
+            return new CsvLogWriter(new PrintWriter(Files.newBufferedWriter(path, CREATE, TRUNCATE_EXISTING)), clock);
+        }
+    }
+
+
+    /**
+     * @param path A path of the log segment, which may be ignored by sinks other than files
+     * @param sink A name of a built-in sink, <code>csv</code>, <code>binary</code>, <code>jul</code>
+     *            or <code>summary</code>, or of a {@link Provider}
+     * @param clock A clock to convert values of {@link System#nanoTime()} with
+     * @return A new writer
+     * @throws IOException If failed to open the segment
+     * @throws IllegalArgumentException If no sink has the specified name
+     */
+    static LogWriter open(final Path path, final String sink, final NanoClock clock) throws IOException {
+        switch (sink.toLowerCase()) {
+        case "csv":
+            return open(path, Format.CSV, clock);
+
+        case "binary":
+            return open(path, Format.BINARY, clock);
+
+        case "jul":
+            return new CsvLogWriter(new PrintWriter(new LoggerWriter(Logger.getLogger("io.sniffer4j"))), clock);
+
+        case "summary":
+            return new SummaryLogWriter(open(path, Format.CSV, clock));
+
+        default:
+            for (final Provider aProvider : ServiceLoader.load(Provider.class, LogWriter.class.getClassLoader())) {
+                if (aProvider.name().equalsIgnoreCase(sink)) {
+                    return aProvider.open(path, clock);
+                }
+            }
+
+            throw new IllegalArgumentException("No sink: " + sink + ".");
+        }
+    }
+
+
+    /**
+     * @param mode An output mode of the segment
+     * @param callTree {@code true} if records and summaries carry parents and self time
+     * @param resources {@code true} if records and summaries carry CPU time and allocated bytes
+     */
+    void writeHeader(LogBroker.Mode mode, boolean callTree, boolean resources);
+
+
+    void writeSampling(String description);
+
+
+    /**
+     * Called after the header with {@link Options#CALIBRATE}. This implementation does nothing.
+     * 
+     * @param nanos Cost of a probe measured at startup, which is subtracted from time taken once for
+     *            each instrumented descendant of a call
+     */
+    default void writeOverhead(final long nanos) {
+        // Optional
+    }
+
+
+    void writeMethod(MethodRegistry.Entry anEntry);
+
+
+    /**
+     * @param aRecord A record, which is reused after this method returns
+     */
+    void writeRecord(Record aRecord);
+
+
+    /**
+     * Writes records delivered in a batch, one by one by default.
+     * 
+     * @param records Records, which are reused after this method returns
+     * @param length Number of records from the beginning of the array
+     */
+    default void writeRecords(final Record[] records, final int length) {
+        for (int i = 0; i < length; i++) {
+            writeRecord(records[i]);
+        }
+    }
+
+
+    void writeInterval(long begin, long end);
+
+
+    /**
+     * @param summary Values of the columns of the aggregate mode, see {@link MethodStatistics#columns(boolean, boolean)}
+     */
+    void writeStatistics(long[] summary);
+
+
+    void writeEdge(int parentId, int childId, long count, long totalNanos);
+
+
+    void writeCalls(int methodId, long calls, long sampled);
+
+
+    /**
+     * @param hits Number of classes returned from {@link TransformCache}
+     * @param misses Number of classes instrumented because not found in {@link TransformCache}
+     */
+    void writeCache(long hits, long misses);
+
+
+    /**
+     * Called before the trailer with {@link Options#SPILLSIZE}. This implementation does nothing.
+     * 
+     * @param spilled Number of records spilled because a ring buffer was full
+     * @param dropped Number of records dropped because the spill buffer was full too
+     */
+    default void writeSpill(final long spilled, final long dropped) {
+        // Optional
+    }
+
+
+    void writeTrailer(long dropped, long overwritten);
+
+
+    void flush();
+
+
+    /**
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    void close();
+
+
+    /**
+     * Creates a {@link LogWriter} of a sink, which is registered in
+     * <code>META-INF/services/io.sniffer4j.LogWriter$Provider</code> and selected by its name with
+     * {@link Options#SINKS}.
+     */
+    interface Provider {
+
+        /**
+         * @return A name of the sink, which does not conflict with built-in ones
+         */
+        String name();
+
+
+        /**
+         * @param path A path of the log segment, which may be ignored
+         * @param clock A clock to convert values of {@link System#nanoTime()} with
+         * @return A new writer of the log segment
+         * @throws IOException If failed to open the sink
+         */
+        LogWriter open(Path path, NanoClock clock) throws IOException;
+
+    }
+
+
+    /**
+     * Formats of log segments.
+     */
+    enum Format {
+
+        /**
+         * Human readable text, one line per entry.
+         */
+        CSV,
+
+        /**
+         * Compact fixed-width records, which can be converted into CSV by
+         * {@link BinaryLogConverter}.
+         */
+        BINARY;
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Logs each line written into this as a message of {@link java.util.logging}, which makes the
+ * <code>jul</code> sink out of {@link CsvLogWriter}. Lines starting with <code>#</code> are logged
+ * at {@link Level#CONFIG}, and others at {@link Level#INFO}.
+ */
+final class LoggerWriter extends Writer {
+
+    private final StringBuilder line = new StringBuilder(128);
+
+    private final Logger        logger;
+
+
+    LoggerWriter(final Logger logger) {
+        this.logger = logger;
+    }
+
+
+    /**
+     * @see java.io.Writer#write(char[], int, int)
+     */
+    @Override
+    public void write(final char[] chars, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) {
+            final char c = chars[i];
+
+            if (c == '\n') {
+                logLine();
+            } else if (c != '\r') {
+                this.line.append(c);
+            }
+        }
+    }
+
+
+    /**
+     * @see java.io.Writer#flush()
+     */
+    @Override
+    public void flush() {
+        // Every line is logged as soon as it ends
+    }
+
+
+    /**
+     * @see java.io.Writer#close()
+     */
+    @Override
+    public void close() {
+        if (this.line.length() > 0) {
+            logLine();
+        }
+    }
+
+
+    private void logLine() {
+        final Level level = this.line.length() > 0 && this.line.charAt(0) == '#' ? Level.CONFIG : Level.INFO;
+
+        if (this.logger.isLoggable(level)) {
+            this.logger.log(level, this.line.toString());
+        }
+
+        this.line.setLength(0);
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import javassist.CtBehavior;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.MethodInfo;
+
+
+/**
+ * Decides which methods of a class in the measured packages are instrumented.
+ * 
+ * <p>Methods without code, and synthetic or bridge methods (unless {@link Options#SYNTHETIC}) are
+ * skipped. Constructors and static initializers are instrumented only with
+ * {@link Options#CONSTRUCTORS} and {@link Options#CLINIT}.
+ * 
+ * <p>If {@link Options#METHODS} or {@link Options#ANNOTATIONS} is specified, a method is selected
+ * if its name (or name and descriptor, like <code>get*(I)*</code>) matches any of the patterns, or
+ * it is annotated with any of the annotations. Otherwise, methods whose byte-codes are shorter than
+ * {@link Options#MINSIZE}, like getters, setters and delegates, are skipped, because the probe
+ * would cost more than the method and prevent it from being inlined.
+ */
+final class MethodFilter {
+
+    private final List<String> patterns;
+
+    private final List<String> annotations;
+
+    private final boolean      synthetic;
+
+    private final int          minSize;
+
+    private final boolean      constructors;
+
+    private final boolean      classInitializer;
+
+
+    MethodFilter() {
+        this.patterns = Options.METHODS.value();
+        this.annotations = Options.ANNOTATIONS.value();
+        this.synthetic = Options.SYNTHETIC.value().booleanValue();
+        this.minSize = Options.MINSIZE.value().intValue();
+        this.constructors = Options.CONSTRUCTORS.value().booleanValue();
+        this.classInitializer = Options.CLINIT.value().booleanValue();
+    }
+
+
+    /**
+     * @param aBehavior A method, a constructor or a static initializer
+     * @return {@code true} if it is instrumented
+     */
+    boolean test(final CtBehavior aBehavior) {
+        final MethodInfo methodInfo = aBehavior.getMethodInfo();
+        final CodeAttribute code = methodInfo.getCodeAttribute();
+
+        // Abstract or native
+        if (Objects.isNull(code)) {
+            return false;
+        }
+
+        return test(methodInfo.getAccessFlags(), methodInfo.getName(), methodInfo.getDescriptor(), code.getCodeLength(), aBehavior::hasAnnotation);
+    }
+
+
+    /**
+     * Works like {@link #test(CtBehavior)} on attributes read by any bytecode library.
+     * 
+     * @param accessFlags Access flags of the method
+     * @param name A name of the method, <code>&lt;init&gt;</code> or <code>&lt;clinit&gt;</code>
+     * @param descriptor A descriptor of the method
+     * @param codeLength Length of the byte-codes of the method
+     * @param annotated Tells whether the method is annotated with an annotation, given its class name
+     * @return {@code true} if it is instrumented
+     */
+    boolean test(final int accessFlags, final String name, final String descriptor, final int codeLength, final Predicate<String> annotated) {
+        if ((accessFlags & (AccessFlag.ABSTRACT | AccessFlag.NATIVE)) != 0) {
+            return false;
+        }
+
+        if (!this.synthetic && (accessFlags & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) != 0) {
+            return false;
+        }
+
+        if (MethodInfo.nameInit.equals(name) || MethodInfo.nameClinit.equals(name)) {
+            return (MethodInfo.nameClinit.equals(name) ? this.classInitializer : this.constructors)
+                && codeLength >= this.minSize;
+        }
+
+        if (this.patterns.isEmpty() && this.annotations.isEmpty()) {
+            return codeLength >= this.minSize;
+        }
+
+        return isSelected(name, descriptor, annotated);
+    }
+
+
+    private boolean isSelected(final String name, final String descriptor, final Predicate<String> annotated) {
+        for (final String each : this.patterns) {
+            final String subject = each.indexOf('(') < 0 ? name : name + descriptor;
+
+            if (PackageFilter.globMatches(each, subject)) {
+                return true;
+            }
+        }
+
+        for (final String each : this.annotations) {
+            if (annotated.test(each)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return A description of options of this class, for {@link Sniffer4jTransformer#fingerprint()}
+     */
+    static String describe() {
+        return "methods=" + Options.METHODS.value()
+            + ",annotations=" + Options.ANNOTATIONS.value()
+            + ",synthetic=" + Options.SYNTHETIC.value()
+            + ",minsize=" + Options.MINSIZE.value()
+            + ",constructors=" + Options.CONSTRUCTORS.value()
+            + ",clinit=" + Options.CLINIT.value();
+    }
+
+}
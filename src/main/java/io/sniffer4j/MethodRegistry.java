@@ -0,0 +1,271 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Assigns a compact integer ID to each instrumented method at the time of class transformation.
+ * 
+ * <p>Injected probes and records carry only the ID. The writer thread outputs each {@link Entry}
+ * once as a dictionary, so that overloaded methods are distinguished by their descriptors.
+ * 
+ * <p>IDs are assigned from blocks of {@link #BLOCK_SIZE}. With {@link TransformCache}, blocks are
+ * reserved across JVM runs, so that IDs baked into cached byte-codes stay unique, and IDs may be
+ * sparse.
+ */
+public final class MethodRegistry {
+
+    static final int                 BLOCK_SIZE = 1_024;
+
+    private final Object             lock       = new Object();
+
+    private final Map<String, Entry> registered = new HashMap<>();
+
+    private Entry[]                  entries    = new Entry[256];
+
+    private int                      size;
+
+    private int                      next;
+
+    private int                      blockEnd;
+
+    private IntSupplier              blocks;
+
+
+    private MethodRegistry() {
+    }
+
+
+    /**
+     * @return A singleton instance
+     */
+    static MethodRegistry instance() {
+        return SingletonHolder.SINGLETON;
+    }
+
+
+    /**
+     * @param className Name of class which declares the method
+     * @param methodName Name of the method
+     * @param descriptor Descriptor of the method, like <code>(I)Ljava/lang/String;</code>
+     * @return A newly assigned ID, or the ID assigned before if the method is retransformed
+     */
+    int register(final String className, final String methodName, final String descriptor) {
+        synchronized (this.lock) {
+            final Entry existing = this.registered.get(keyOf(className, methodName, descriptor));
+
+            if (Objects.nonNull(existing)) {
+                return existing.id;
+            }
+
+            int id;
+
+            // Skips IDs already restored from cache, which a reserved block may overlap after a wipe
+            do {
+                if (this.next == this.blockEnd) {
+                    this.next = Objects.isNull(this.blocks) ? this.blockEnd : this.blocks.getAsInt();
+                    this.blockEnd = this.next + BLOCK_SIZE;
+                }
+
+                id = this.next++;
+            } while (Objects.nonNull(entryAt(id)));
+
+            put(new Entry(id, className, methodName, descriptor));
+
+            return id;
+        }
+    }
+
+
+    /**
+     * Registers methods with IDs assigned in a previous run, unless any of the IDs is used by
+     * another method.
+     * 
+     * @param restored Entries restored from cache
+     * @return {@code true} if all of the entries are registered
+     */
+    boolean restore(final Entry[] restored) {
+        synchronized (this.lock) {
+            for (final Entry each : restored) {
+                final Entry existing = entryAt(each.id);
+
+                if (Objects.nonNull(existing) && !existing.isSameMethodAs(each)) {
+                    return false;
+                }
+            }
+
+            for (final Entry each : restored) {
+                put(each);
+            }
+
+            return true;
+        }
+    }
+
+
+    /**
+     * @param blocks A supplier of the first ID of a newly reserved block of {@link #BLOCK_SIZE} IDs
+     */
+    void allocateBlocksWith(final IntSupplier blocks) {
+        synchronized (this.lock) {
+            this.blocks = blocks;
+            this.blockEnd = this.next;
+        }
+    }
+
+
+    /**
+     * @param id An ID returned by {@link #register(String, String, String)}
+     * @return An entry of the method, or {@code null} if no method has the ID
+     */
+    Entry entry(final int id) {
+        synchronized (this.lock) {
+            return entryAt(id);
+        }
+    }
+
+
+    /**
+     * @return An upper bound (exclusive) of registered IDs
+     */
+    int size() {
+        synchronized (this.lock) {
+            return this.size;
+        }
+    }
+
+
+    /**
+     * An instrumented method.
+     */
+    public static final class Entry {
+
+        final int    id;
+
+        final String className;
+
+        final String methodName;
+
+        final String descriptor;
+
+
+        Entry(final int id, final String className, final String methodName, final String descriptor) {
+            this.id = id;
+            this.className = className;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+        }
+
+
+        /**
+         * @return An ID of this method
+         */
+        public int id() {
+            return this.id;
+        }
+
+
+        /**
+         * @return A fully qualified name of the declaring class
+         */
+        public String className() {
+            return this.className;
+        }
+
+
+        /**
+         * @return A name of this method, <code>&lt;init&gt;</code> or <code>&lt;clinit&gt;</code>
+         */
+        public String methodName() {
+            return this.methodName;
+        }
+
+
+        /**
+         * @return A descriptor of this method, such as <code>(Ljava/lang/String;)V</code>
+         */
+        public String descriptor() {
+            return this.descriptor;
+        }
+
+
+        boolean isSameMethodAs(final Entry other) {
+            return this.className.equals(other.className)
+                && this.methodName.equals(other.methodName)
+                && this.descriptor.equals(other.descriptor);
+        }
+
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return new StringJoiner(",")
+                .add(String.valueOf(this.id))
+                .add(this.className)
+                .add(this.methodName)
+                .add(this.descriptor)
+                .toString();
+        }
+
+    }
+
+
+    private static String keyOf(final String className, final String methodName, final String descriptor) {
+        return className + '.' + methodName + descriptor;
+    }
+
+
+    private Entry entryAt(final int id) {
+        return id < this.entries.length ? this.entries[id] : null;
+    }
+
+
+    private void put(final Entry anEntry) {
+        if (anEntry.id >= this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, Math.max(anEntry.id + 1, this.entries.length * 2));
+        }
+
+        this.entries[anEntry.id] = anEntry;
+        this.size = Math.max(this.size, anEntry.id + 1);
+        this.registered.putIfAbsent(keyOf(anEntry.className, anEntry.methodName, anEntry.descriptor), anEntry);
+    }
+
+
+    private static final class SingletonHolder {
+
+        private static final MethodRegistry SINGLETON = new MethodRegistry();
+
+    }
+
+}
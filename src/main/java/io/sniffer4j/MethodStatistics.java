@@ -0,0 +1,229 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Aggregated measurements of a single method. This class is NOT thread-safe, and is updated only
+ * by the writer thread of {@link LogBroker}.
+ */
+final class MethodStatistics {
+
+    private final int       methodId;
+
+    private final boolean   callTree;
+
+    private final boolean   resources;
+
+    private final Histogram histogram = new Histogram();
+
+    private final Histogram errorHistogram = new Histogram();
+
+    private long            callsAtReset;
+
+    private long            allocatedSum;
+
+    private long            count;
+
+    private long            cpuSum;
+
+    private long            errorCount;
+
+    private long            errorMax;
+
+    private long            max;
+
+    private long            min;
+
+    private long            selfSum;
+
+    private long            sum;
+
+
+    /**
+     * @param methodId An ID of the method
+     * @param callTree {@code true} if self time is to be summarized
+     * @param resources {@code true} if CPU time and allocated bytes are to be summarized
+     * @param callsAtReset Estimated number of invocations of the method at the last reset
+     */
+    MethodStatistics(final int methodId, final boolean callTree, final boolean resources, final long callsAtReset) {
+        this.methodId = methodId;
+        this.callTree = callTree;
+        this.resources = resources;
+        reset();
+
+        // Created on the first measurement, which may come after invocations not measured by Sampler
+        this.callsAtReset = callsAtReset;
+    }
+
+
+    /**
+     * @return {@code true} if no measurement was recorded since the last reset
+     */
+    boolean isEmpty() {
+        return this.count == 0;
+    }
+
+
+    int methodId() {
+        return this.methodId;
+    }
+
+
+    /**
+     * @param nanos Time taken by a method execution in nanoseconds
+     * @param selfNanos Time taken excluding instrumented children in nanoseconds
+     */
+    void record(final long nanos, final long selfNanos) {
+        this.count++;
+        this.sum += nanos;
+        this.selfSum += selfNanos;
+        this.min = Math.min(this.min, nanos);
+        this.max = Math.max(this.max, nanos);
+        this.histogram.record(nanos);
+    }
+
+
+    /**
+     * Called in addition to {@link #record(long, long)} with {@link Options#RESOURCES}.
+     * 
+     * @param cpuNanos CPU time used by a method execution in nanoseconds
+     * @param allocated Bytes allocated by a method execution
+     */
+    void recordResources(final long cpuNanos, final long allocated) {
+        this.cpuSum += cpuNanos;
+        this.allocatedSum += allocated;
+    }
+
+
+    /**
+     * Called in addition to {@link #record(long, long)} for an execution which exited by throwing.
+     * 
+     * @param nanos Time taken by a method execution in nanoseconds
+     */
+    void recordError(final long nanos) {
+        this.errorCount++;
+        this.errorMax = Math.max(this.errorMax, nanos);
+        this.errorHistogram.record(nanos);
+    }
+
+
+    void reset() {
+        this.callsAtReset = Sampler.calls(this.methodId);
+        this.count = 0;
+        this.sum = 0;
+        this.selfSum = 0;
+        this.cpuSum = 0;
+        this.allocatedSum = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+        this.histogram.reset();
+        this.errorCount = 0;
+        this.errorMax = 0;
+        this.errorHistogram.reset();
+    }
+
+
+    /**
+     * @return Number of invocations since the last reset, including ones not measured by
+     *         {@link Sampler}
+     */
+    private long calls() {
+        if (Sampler.isEnabled()) {
+            return Sampler.calls(this.methodId) - this.callsAtReset;
+        }
+
+        return this.count;
+    }
+
+
+    private long percentile(final double percentile) {
+        return Math.min(this.histogram.valueAtPercentile(percentile), this.max);
+    }
+
+
+    /**
+     * @param callTree {@code true} if self time is summarized
+     * @param resources {@code true} if CPU time and allocated bytes are summarized
+     * @return Names of values in {@link #summary()}
+     */
+    static String[] columns(final boolean callTree, final boolean resources) {
+        final String[] columns = callTree
+            ? new String[] { "method_id", "count", "calls", "total_ns", "self_ns", "min_ns", "max_ns", "p50_ns", "p90_ns", "p99_ns", "p999_ns", "errors", "error_p50_ns", "error_p99_ns", "error_max_ns" }
+            : new String[] { "method_id", "count", "calls", "total_ns", "min_ns", "max_ns", "p50_ns", "p90_ns", "p99_ns", "p999_ns", "errors", "error_p50_ns", "error_p99_ns", "error_max_ns" };
+
+        if (!resources) {
+            return columns;
+        }
+
+        final String[] withResources = Arrays.copyOf(columns, columns.length + 2);
+        withResources[columns.length] = "cpu_ns";
+        withResources[columns.length + 1] = "allocated_bytes";
+
+        return withResources;
+    }
+
+
+    /**
+     * @return Method ID, count, calls, total, self (only with the call tree), min, max, p50, p90,
+     *         p99 and p99.9, and then count of executions which exited by throwing and their p50,
+     *         p99 and max in nanoseconds, followed by total CPU time and allocated bytes (only with
+     *         {@link Options#RESOURCES})
+     */
+    long[] summary() {
+        final long[] summary = new long[(this.callTree ? 15 : 14) + (this.resources ? 2 : 0)];
+        int i = 0;
+
+        summary[i++] = this.methodId;
+        summary[i++] = this.count;
+        summary[i++] = calls();
+        summary[i++] = this.sum;
+
+        if (this.callTree) {
+            summary[i++] = this.selfSum;
+        }
+
+        summary[i++] = isEmpty() ? 0 : this.min;
+        summary[i++] = this.max;
+        summary[i++] = percentile(50.0);
+        summary[i++] = percentile(90.0);
+        summary[i++] = percentile(99.0);
+        summary[i++] = percentile(99.9);
+        summary[i++] = this.errorCount;
+        summary[i++] = Math.min(this.errorHistogram.valueAtPercentile(50.0), this.errorMax);
+        summary[i++] = Math.min(this.errorHistogram.valueAtPercentile(99.0), this.errorMax);
+        summary[i++] = this.errorMax;
+
+        if (this.resources) {
+            summary[i++] = this.cpuSum;
+            summary[i++] = this.allocatedSum;
+        }
+
+        return summary;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Converts values of {@link System#nanoTime()} into wall-clock time.
+ * 
+ * <p>Probes record only {@link System#nanoTime()} to avoid allocations, and the writer thread
+ * converts them against an anchor, a pair of wall-clock time and {@link System#nanoTime()} taken
+ * at the same moment. The anchor is also written into binary logs, so that they can be converted
+ * offline.
+ */
+public final class NanoClock {
+
+    private static final NanoClock SYSTEM = newSystemClock();
+
+    private final long             anchorEpochNanos;
+
+    private final long             anchorNanoTime;
+
+    private final ZoneId           zone;
+
+
+    NanoClock(final long anchorEpochNanos, final long anchorNanoTime, final ZoneId zone) {
+        this.anchorEpochNanos = anchorEpochNanos;
+        this.anchorNanoTime = anchorNanoTime;
+        this.zone = zone;
+    }
+
+
+    /**
+     * @return A clock anchored when this class is initialized, in the system default time zone
+     */
+    static NanoClock system() {
+        return SYSTEM;
+    }
+
+
+    private static NanoClock newSystemClock() {
+        final Instant now = Instant.now();
+        final long nanoTime = System.nanoTime();
+
+        return new NanoClock(TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano(), nanoTime, ZoneId.systemDefault());
+    }
+
+
+    long anchorEpochNanos() {
+        return this.anchorEpochNanos;
+    }
+
+
+    long anchorNanoTime() {
+        return this.anchorNanoTime;
+    }
+
+
+    /**
+     * @return A time zone to format wall-clock time in
+     */
+    public ZoneId zone() {
+        return this.zone;
+    }
+
+
+    /**
+     * @param nanoTime A value of {@link System#nanoTime()}
+     * @return Nanoseconds from the epoch corresponding to the specified value
+     */
+    public long toEpochNanos(final long nanoTime) {
+        return this.anchorEpochNanos + (nanoTime - this.anchorNanoTime);
+    }
+
+
+    /**
+     * @param nanoTime A value of {@link System#nanoTime()}
+     * @return An instant corresponding to the specified value
+     */
+    public Instant toInstant(final long nanoTime) {
+        return Instant.ofEpochSecond(0, toEpochNanos(nanoTime));
+    }
+
+
+    /**
+     * @param nanoTime A value of {@link System#nanoTime()}
+     * @return A string of the corresponding date-time in the time zone of this clock
+     */
+    public String toLocalDateTime(final long nanoTime) {
+        return LocalDateTime.ofInstant(toInstant(nanoTime), this.zone).toString();
+    }
+
+}
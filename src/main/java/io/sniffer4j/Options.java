@@ -29,12 +29,15 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
-import java.util.regex.Pattern;
 
 
 /**
@@ -78,12 +81,18 @@ class Options<L> {
         })// @formatter:on
         .build();
 
-    static final Options<Predicate<String>> PACKAGES  = Options.<Predicate<String>> builder()
-        .defaultValue(Pattern.compile("^(javax?|jdk|(com/|)(sun|oracle)|io/sniffer4j).*").asPredicate())
-        .converter(v -> Pattern.compile(v).asPredicate())
+    static final Options<List<String>>      PACKAGES  = Options.<List<String>> builder()
+        .defaultValue(Collections.emptyList())
+        .converter(v -> Arrays.asList(v.split(";")))
         .withOptional()
-        .prehook(v -> v.replace(";", "|").replace(".", "/").replaceAll("*", Pattern.quote("*")))
-        .composer((o, n) -> o.or(n.negate()))
+        .composer(Options::concat)
+        .build();
+
+    static final Options<List<String>>      EXCLUDES  = Options.<List<String>> builder()
+        .defaultValue(Arrays.asList("java", "javax", "jdk", "sun", "com.sun", "oracle", "com.oracle", "javassist", "org.objectweb.asm", "io.sniffer4j"))
+        .converter(v -> Arrays.asList(v.split(";")))
+        .withOptional()
+        .composer(Options::concat)
         .build();
 
     @SuppressWarnings("boxing")
@@ -92,6 +101,123 @@ class Options<L> {
     @SuppressWarnings("boxing")
     static final Options<Integer>           THRESHOLD = new IntValueOptions(Integer.MIN_VALUE);
 
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           BUFFERSIZE = new IntValueOptions(1_024);
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           SPILLSIZE = new IntValueOptions(0);
+
+    static final Options<RingBuffer.Overflow> OVERFLOW = Options.<RingBuffer.Overflow> builder()
+        .defaultValue(RingBuffer.Overflow.DROP)
+        .converter(v -> RingBuffer.Overflow.valueOf(v.toUpperCase()))
+        .build();
+
+    static final Options<LogBroker.Mode>    MODE      = Options.<LogBroker.Mode> builder()
+        .defaultValue(LogBroker.Mode.RAW)
+        .converter(v -> LogBroker.Mode.valueOf(v.toUpperCase()))
+        .build();
+
+    static final Options<Boolean>           ROLLOVER  = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           SAMPLING  = new IntValueOptions(1);
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           RATELIMIT = new IntValueOptions(0);
+
+    static final Options<LogWriter.Format>  FORMAT    = Options.<LogWriter.Format> builder()
+        .defaultValue(LogWriter.Format.CSV)
+        .converter(v -> LogWriter.Format.valueOf(v.toUpperCase()))
+        .build();
+
+    static final Options<List<String>>      SINKS     = Options.<List<String>> builder()
+        .defaultValue(Collections.emptyList())
+        .converter(v -> Arrays.asList(v.split(";")))
+        .build();
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           SINKQUEUE = new IntValueOptions(64);
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           BATCHSIZE = new IntValueOptions(8_192);
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           MAXLATENCY = new IntValueOptions(100);
+
+    static final Options<Boolean>           CALLTREE  = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    static final Options<Boolean>           RESOURCES = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    static final Options<Boolean>           CALIBRATE = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    static final Options<List<String>>      METHODS   = Options.<List<String>> builder()
+        .defaultValue(Collections.emptyList())
+        .converter(v -> Arrays.asList(v.split(";")))
+        .withOptional()
+        .composer(Options::concat)
+        .build();
+
+    static final Options<List<String>>      ANNOTATIONS = Options.<List<String>> builder()
+        .defaultValue(Collections.emptyList())
+        .converter(v -> Arrays.asList(v.split(";")))
+        .withOptional()
+        .composer(Options::concat)
+        .build();
+
+    static final Options<Boolean>           SYNTHETIC = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           MINSIZE   = new IntValueOptions(10);
+
+    static final Options<Boolean>           CONSTRUCTORS = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    static final Options<Boolean>           CLINIT    = Options.<Boolean> builder()
+        .defaultValue(Boolean.FALSE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    static final Options<Sniffer4jTransformer.Weaver> WEAVER = Options.<Sniffer4jTransformer.Weaver> builder()
+        .defaultValue(Sniffer4jTransformer.Weaver.JAVASSIST)
+        .converter(v -> Sniffer4jTransformer.Weaver.valueOf(v.toUpperCase()))
+        .build();
+
+    static final Options<Optional<Path>>    CACHEDIR  = Options.<Optional<Path>> builder()
+        .defaultValue(Optional.empty())
+        .converter(v -> Optional.of(Paths.get(v)))
+        .build();
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           CACHESIZE = new IntValueOptions(256);
+
+    static final Options<Boolean>           JMX       = Options.<Boolean> builder()
+        .defaultValue(Boolean.TRUE)
+        .converter(Boolean::valueOf)
+        .build();
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           JMXDELAY  = new IntValueOptions(10);
+
+    @SuppressWarnings("boxing")
+    static final Options<Integer>           HTTPPORT  = new IntValueOptions(0);
+
     static final Options<Void>              NULL      = new NullOptions();
 
     private final BiFunction<L, L, L>       composer;
@@ -125,8 +251,37 @@ class Options<L> {
         switch (name.toUpperCase()) {
         // @formatter:off
         case "PACKAGES":  return PACKAGES;
+        case "EXCLUDES":  return EXCLUDES;
+        case "METHODS":   return METHODS;
+        case "ANNOTATIONS": return ANNOTATIONS;
+        case "SYNTHETIC": return SYNTHETIC;
+        case "MINSIZE":   return MINSIZE;
+        case "CONSTRUCTORS": return CONSTRUCTORS;
+        case "CLINIT":    return CLINIT;
         case "THRESHOLD": return THRESHOLD;
         case "LOGFILE":   return LOGFILE;
+        case "BUFFERSIZE": return BUFFERSIZE;
+        case "SPILLSIZE": return SPILLSIZE;
+        case "OVERFLOW":  return OVERFLOW;
+        case "MODE":      return MODE;
+        case "FORMAT":    return FORMAT;
+        case "SINKS":     return SINKS;
+        case "SINKQUEUE": return SINKQUEUE;
+        case "BATCHSIZE": return BATCHSIZE;
+        case "MAXLATENCY": return MAXLATENCY;
+        case "INTERVAL":  return INTERVAL;
+        case "ROLLOVER":  return ROLLOVER;
+        case "SAMPLING":  return SAMPLING;
+        case "RATELIMIT": return RATELIMIT;
+        case "CALLTREE":  return CALLTREE;
+        case "RESOURCES": return RESOURCES;
+        case "CALIBRATE": return CALIBRATE;
+        case "WEAVER":    return WEAVER;
+        case "CACHEDIR":  return CACHEDIR;
+        case "CACHESIZE": return CACHESIZE;
+        case "JMX":       return JMX;
+        case "JMXDELAY":  return JMXDELAY;
+        case "HTTPPORT":  return HTTPPORT;
         // @formatter:on
         default:
             System.err.println("No option: " + name + ".");
@@ -135,6 +290,14 @@ class Options<L> {
     }
 
 
+    private static List<String> concat(final List<String> oldValue, final List<String> newValue) {
+        final List<String> concatenated = new ArrayList<>(oldValue);
+        concatenated.addAll(newValue);
+
+        return concatenated;
+    }
+
+
     void value(final String newValue) {
         try {
             L converted = this.converter.apply(this.prehook.apply(newValue));
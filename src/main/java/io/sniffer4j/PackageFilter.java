@@ -0,0 +1,208 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Decides whether classes are instrumented by their packages, with glob patterns of
+ * {@link Options#PACKAGES} to include and {@link Options#EXCLUDES} to exclude.
+ * 
+ * <p>A pattern is a dotted package name, in which <code>*</code> matches any characters within a
+ * segment and <code>**</code> matches any number of segments. A pattern also matches subpackages of
+ * what it matches, so a trailing <code>.*</code> or <code>.**</code> is redundant. A class is
+ * instrumented if its package matches any of includes (or no include is specified), and none of
+ * excludes.
+ * 
+ * <p>Patterns are compiled into tries of segments, and the result is memoized per package, so
+ * that deciding on a class, loaded from a package decided before, costs a hash lookup.
+ */
+final class PackageFilter {
+
+    private final Node                          includes = new Node();
+
+    private final Node                          excludes = new Node();
+
+    private final boolean                       includesAll;
+
+    private final ConcurrentMap<String, Boolean> decided = new ConcurrentHashMap<>();
+
+
+    /**
+     * @param includes Patterns of packages to include, or empty to include all
+     * @param excludes Patterns of packages to exclude
+     */
+    PackageFilter(final List<String> includes, final List<String> excludes) {
+        includes.forEach(this.includes::add);
+        excludes.forEach(this.excludes::add);
+
+        this.includesAll = includes.isEmpty();
+    }
+
+
+    /**
+     * @param internalClassName Name of class in the internal form, like <code>org/example/Foo</code>
+     * @return {@code true} if the class is instrumented
+     */
+    boolean test(final String internalClassName) {
+        // Hidden classes, like ones of lambda expressions, are given no name
+        if (Objects.isNull(internalClassName)) {
+            return false;
+        }
+
+        final int lastSlash = internalClassName.lastIndexOf('/');
+        final String packageName = lastSlash < 0 ? "" : internalClassName.substring(0, lastSlash);
+
+        Boolean result = this.decided.get(packageName);
+
+        if (Objects.isNull(result)) {
+            result = Boolean.valueOf(decide(packageName.isEmpty() ? new String[0] : packageName.split("/")));
+            this.decided.put(packageName, result);
+        }
+
+        return result.booleanValue();
+    }
+
+
+    private boolean decide(final String[] segments) {
+        return (this.includesAll || this.includes.matches(segments, 0)) && !this.excludes.matches(segments, 0);
+    }
+
+
+    /**
+     * @return {@code true} if the whole of <code>segment</code> matches <code>glob</code>, in which
+     *         <code>*</code> matches any characters
+     */
+    static boolean globMatches(final String glob, final String segment) {
+        int g = 0;
+        int s = 0;
+        int starAt = -1;
+        int resumeAt = 0;
+
+        while (s < segment.length()) {
+            if (g < glob.length() && glob.charAt(g) == '*') {
+                starAt = g++;
+                resumeAt = s;
+            } else if (g < glob.length() && glob.charAt(g) == segment.charAt(s)) {
+                g++;
+                s++;
+            } else if (starAt >= 0) {
+                // Lets the last star consume one more character, and retries
+                g = starAt + 1;
+                s = ++resumeAt;
+            } else {
+                return false;
+            }
+        }
+
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+
+        return g == glob.length();
+    }
+
+
+    private static final class Node {
+
+        private final Map<String, Node> literals  = new HashMap<>();
+
+        private final Map<String, Node> wildcards = new HashMap<>();
+
+        private Node                    anyDepth;
+
+        private boolean                 terminal;
+
+
+        private void add(final String pattern) {
+            final String[] segments = pattern.trim().split("\\.");
+            int length = segments.length;
+
+            // Subpackages are matched anyway
+            while (length > 0 && (segments[length - 1].equals("*") || segments[length - 1].equals("**"))) {
+                length--;
+            }
+
+            Node node = this;
+
+            for (int i = 0; i < length; i++) {
+                final String segment = segments[i];
+
+                if (segment.equals("**")) {
+                    if (Objects.isNull(node.anyDepth)) {
+                        node.anyDepth = new Node();
+                    }
+
+                    node = node.anyDepth;
+                } else {
+                    node = (segment.indexOf('*') < 0 ? node.literals : node.wildcards).computeIfAbsent(segment, k -> new Node());
+                }
+            }
+
+            node.terminal = true;
+        }
+
+
+        private boolean matches(final String[] segments, final int from) {
+            if (this.terminal) {
+                return true;
+            }
+
+            if (Objects.nonNull(this.anyDepth)) {
+                for (int i = from; i <= segments.length; i++) {
+                    if (this.anyDepth.matches(segments, i)) {
+                        return true;
+                    }
+                }
+            }
+
+            if (from == segments.length) {
+                return false;
+            }
+
+            final Node literal = this.literals.get(segments[from]);
+
+            if (Objects.nonNull(literal) && literal.matches(segments, from + 1)) {
+                return true;
+            }
+
+            for (final Map.Entry<String, Node> each : this.wildcards.entrySet()) {
+                if (globMatches(each.getKey(), segments[from]) && each.getValue().matches(segments, from + 1)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+}
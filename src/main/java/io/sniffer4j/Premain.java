@@ -36,7 +36,9 @@ import java.util.stream.Stream;
  * of JVM startup, see details for {@link java.lang.instrument.Instrumentation}.
  * 
  * <p>By default, Sniffer4j does NOT inject instrumentation code under the following packages:
- * {@link java}.*, {@link jdk}.*, {@link com.sun}.*, {@link sun}.*, {@link oracle}.* and {@link io.sniffer4j}.*.
+ * {@link java}.*, {@link javax}.*, {@link jdk}.*, {@link com.sun}.*, {@link sun}.*, {@link oracle}.*,
+ * {@link com.oracle}.*, {@link javassist}.*, {@link org.objectweb.asm}.* and {@link io.sniffer4j}.*,
+ * see {@link Options#EXCLUDES}.
  */
 public final class Premain {
 
@@ -50,8 +52,50 @@ public final class Premain {
         parseArguments(agentArguments);
 
         LogBroker.instance().initialize();
+        Sniffer4jMetrics.instance().register(true);
+        QueryServer.start();
 
-        instrumentation.addTransformer(new Sniffer4jTransformer());
+        Sniffer4j.install(instrumentation, true);
+    }
+
+
+    /**
+     * Attaches to a running JVM, and instruments classes already loaded. Once attached, arguments of
+     * later attaches are a command, <code>start</code> or <code>stop</code>, see {@link Sniffer4j}.
+     * 
+     * @param agentArguments Java Agent arguments, or a command
+     * @param instrumentation An instrumentation instance for agent-main
+     */
+    public static void agentmain(final String agentArguments, final Instrumentation instrumentation) {
+        if (Sniffer4j.isInstalled()) {
+            runCommand(agentArguments);
+            return;
+        }
+
+        parseArguments(agentArguments);
+
+        LogBroker.instance().initialize();
+        Sniffer4jMetrics.instance().register(false);
+        QueryServer.start();
+
+        Sniffer4j.install(instrumentation, false);
+        Sniffer4j.start();
+    }
+
+
+    private static void runCommand(final String command) {
+        switch (String.valueOf(command).trim().toLowerCase()) {
+        case "start":
+            Sniffer4j.start();
+            break;
+
+        case "stop":
+            Sniffer4j.stop();
+            break;
+
+        default:
+            System.err.printf("Unexpected command '%s', use start or stop.%n", command);
+        }
     }
 
 
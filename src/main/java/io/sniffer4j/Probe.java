@@ -0,0 +1,92 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Entry points called from methods woven by {@link AsmWeaver}. Each instrumented method gets only
+ * a static call in the prologue, one before each return and one in a single exception handler,
+ * so that it stays small enough for the JIT compiler to inline it. These methods are small enough
+ * to be inlined into it in turn, and options are constants to the JIT compiler.
+ */
+public final class Probe {
+
+    private static final boolean CALL_TREE       = LogBroker.usesCallStack();
+
+    private static final boolean SAMPLED         = Sampler.isEnabled();
+
+    private static final long    THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(Options.THRESHOLD.value(), 0));
+
+
+    private Probe() {
+    }
+
+
+    /**
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @return A value of {@link System#nanoTime()}, or {@link Sampler#NOT_SAMPLED}
+     */
+    public static long begin(final int methodId) {
+        final long begin = SAMPLED ? Sampler.begin(methodId) : System.nanoTime();
+
+        if (CALL_TREE && begin != Sampler.NOT_SAMPLED) {
+            LogBroker.instance().enter(methodId, begin);
+        }
+
+        return begin;
+    }
+
+
+    /**
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @param begin A value returned by {@link #begin(int)}
+     */
+    public static void end(final int methodId, final long begin) {
+        thrown(null, methodId, begin);
+    }
+
+
+    /**
+     * @param thrown An exception thrown, or {@code null} if exited normally
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @param begin A value returned by {@link #begin(int)}
+     */
+    public static void thrown(final Throwable thrown, final int methodId, final long begin) {
+        if (SAMPLED && begin == Sampler.NOT_SAMPLED) {
+            return;
+        }
+
+        final long end = System.nanoTime();
+
+        if (CALL_TREE) {
+            LogBroker.instance().exit(methodId, begin, end, thrown);
+        } else if (end - begin >= THRESHOLD_NANOS) {
+            LogBroker.instance().submit(methodId, begin, end, thrown);
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Serves the top N methods aggregated in memory as JSON on the loopback interface, so that a
+ * running application can be looked at without reading the log.
+ * 
+ * <pre>
+ * GET http://localhost:&lt;httpport&gt;/top?by=p99_ns&amp;n=10
+ * </pre>
+ * 
+ * <p><code>by</code> is one of columns of the aggregate mode, see {@link MethodStatistics#columns(boolean, boolean)}
+ * (default: <code>total_ns</code>), and <code>n</code> is the number of methods (default:
+ * <code>10</code>). Statistics are summarized by the writer thread of {@link LogBroker}, so this
+ * never touches them concurrently.
+ */
+final class QueryServer {
+
+    private static final String  DEFAULT_COLUMN  = "total_ns";
+
+    private static final int     DEFAULT_LIMIT   = 10;
+
+    private static final long    TIMEOUT_MILLIS  = 1_000;
+
+    private final String[]       columns         = MethodStatistics.columns(Options.CALLTREE.value().booleanValue(), ThreadResources.isSupported());
+
+
+    private QueryServer() {
+    }
+
+
+    /**
+     * Starts serving on {@link Options#HTTPPORT} with a daemon thread, unless it is not positive.
+     */
+    static void start() {
+        final int port = Options.HTTPPORT.value().intValue();
+
+        if (port <= 0) {
+            return;
+        }
+
+        try {
+            final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "sniffer4j-http");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+
+            server.createContext("/top", new QueryServer()::handle);
+            server.setExecutor(executor);
+
+            // The dispatcher thread inherits being a daemon from the thread which starts the server,
+            // so that it does not keep the JVM alive
+            executor.execute(server::start);
+        } catch (final IOException cause) {
+            // The application must not fail only because the port is in use
+            System.err.println("Failed to listen on port " + port + ": " + cause);
+        }
+    }
+
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            final String by = parameters.getOrDefault("by", DEFAULT_COLUMN);
+            final int column = Arrays.asList(this.columns).indexOf(by);
+
+            if (column < 0) {
+                respond(exchange, 400, "{\"error\":\"Unknown column: " + escape(by) + "\"}");
+                return;
+            }
+
+            final int limit;
+
+            try {
+                limit = Integer.parseInt(parameters.getOrDefault("n", String.valueOf(DEFAULT_LIMIT)));
+            } catch (@SuppressWarnings("unused") final NumberFormatException ignored) {
+                respond(exchange, 400, "{\"error\":\"n must be an integer\"}");
+                return;
+            }
+
+            final List<long[]> summaries;
+
+            try {
+                summaries = LogBroker.instance().snapshot().get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException | ExecutionException | TimeoutException cause) {
+                respond(exchange, 503, "{\"error\":\"Writer thread did not respond: " + escape(cause.toString()) + "\"}");
+                return;
+            }
+
+            summaries.sort(Comparator.comparingLong((final long[] summary) -> summary[column]).reversed());
+            respond(exchange, 200, toJson(by, summaries.subList(0, Math.min(Math.max(limit, 0), summaries.size()))));
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    private static Map<String, String> parseQuery(final String query) {
+        final Map<String, String> parameters = new HashMap<>();
+
+        if (Objects.isNull(query)) {
+            return parameters;
+        }
+
+        for (final String each : query.split("&")) {
+            final String[] pair = each.split("=", 2);
+            parameters.put(pair[0], pair.length == 2 ? pair[1] : "");
+        }
+
+        return parameters;
+    }
+
+
+    private static void respond(final HttpExchange exchange, final int status, final String json) throws IOException {
+        final byte[] body = json.getBytes(UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (final OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+
+    private String toJson(final String by, final List<long[]> summaries) {
+        final MethodRegistry registry = MethodRegistry.instance();
+        final StringJoiner methods = new StringJoiner(",", "[", "]");
+
+        for (final long[] summary : summaries) {
+            final MethodRegistry.Entry anEntry = registry.entry((int) summary[0]);
+            final StringJoiner fields = new StringJoiner(",", "{", "}");
+
+            if (Objects.nonNull(anEntry)) {
+                fields.add("\"class\":\"" + escape(anEntry.className) + "\"")
+                    .add("\"method\":\"" + escape(anEntry.methodName) + "\"")
+                    .add("\"descriptor\":\"" + escape(anEntry.descriptor) + "\"");
+            }
+
+            for (int i = 0; i < this.columns.length; i++) {
+                fields.add("\"" + this.columns[i] + "\":" + summary[i]);
+            }
+
+            methods.add(fields.toString());
+        }
+
+        return "{\"by\":\"" + by + "\",\"methods\":" + methods + "}";
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+/**
+ * A measurement of a single method execution.
+ * 
+ * <p>Instances are preallocated by {@link RingBuffer} and reused, so they are mutable and MUST be
+ * copied before the slot that holds them is released. Probes fill in only primitive values, and
+ * the thread is filled in by the consumer from the {@link RingBuffer} owning the slot.
+ * 
+ * <p>Without {@link Options#CALLTREE}, the parent is unknown ({@code -1}) and the self time equals
+ * the total time. A record of an execution which exited by throwing has the name of the exception
+ * class, otherwise {@code null}. CPU time and allocated bytes are measured only with
+ * {@link Options#RESOURCES}.
+ */
+public final class Record {
+
+    int    methodId;
+
+    long   begin;
+
+    long   end;
+
+    int    parentId;
+
+    int    depth;
+
+    long   self;
+
+    String thrown;
+
+    long   cpuTime;
+
+    long   allocated;
+
+    long   threadId;
+
+    String threadName;
+
+
+    /**
+     * @return An ID of the method assigned by {@link MethodRegistry}
+     */
+    public int methodId() {
+        return this.methodId;
+    }
+
+
+    /**
+     * @return A value of {@link System#nanoTime()} at the beginning of the execution
+     */
+    public long begin() {
+        return this.begin;
+    }
+
+
+    /**
+     * @return A value of {@link System#nanoTime()} at the end of the execution
+     */
+    public long end() {
+        return this.end;
+    }
+
+
+    /**
+     * @return An ID of the calling method, or {@code -1} if unknown
+     */
+    public int parentId() {
+        return this.parentId;
+    }
+
+
+    /**
+     * @return Depth in the call tree, {@code 0} at the root
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+
+    /**
+     * @return Nanoseconds taken excluding instrumented children
+     */
+    public long self() {
+        return this.self;
+    }
+
+
+    /**
+     * @return A class name of the exception thrown, or {@code null} if exited normally
+     */
+    public String thrown() {
+        return this.thrown;
+    }
+
+
+    /**
+     * @return Nanoseconds of CPU time used by the execution, or {@code 0} without
+     *         {@link Options#RESOURCES}
+     */
+    public long cpuTime() {
+        return this.cpuTime;
+    }
+
+
+    /**
+     * @return Bytes allocated by the execution, or {@code 0} without {@link Options#RESOURCES}
+     */
+    public long allocated() {
+        return this.allocated;
+    }
+
+
+    /**
+     * @return An ID of the thread which executed the method
+     */
+    public long threadId() {
+        return this.threadId;
+    }
+
+
+    /**
+     * @return A name of the thread which executed the method
+     */
+    public String threadName() {
+        return this.threadName;
+    }
+
+
+    void copyFrom(final Record other) {
+        this.methodId = other.methodId;
+        this.begin = other.begin;
+        this.end = other.end;
+        this.parentId = other.parentId;
+        this.depth = other.depth;
+        this.self = other.self;
+        this.thrown = other.thrown;
+        this.cpuTime = other.cpuTime;
+        this.allocated = other.allocated;
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * A bounded, lock-free ring buffer of {@link Record}s with a single producer and a single consumer.
+ * 
+ * <p>Each instrumented thread owns exactly one instance, so the producer side never contends with
+ * other application threads. The consumer side is the writer thread of {@link LogBroker}.
+ * 
+ * <p>All slots are preallocated. When the buffer is full, the producer either drops the new record
+ * or overwrites the oldest one according to {@link Overflow}, and counts it. With a
+ * spill {@link SharedBuffer}, a record to be dropped is spilled into it instead, and counted only if it is
+ * full too.
+ */
+final class RingBuffer {
+
+    private final AtomicLong            head      = new AtomicLong();
+
+    private final AtomicLong            tail      = new AtomicLong();
+
+    private final CallStack             callStack = new CallStack();
+
+    private final int                   mask;
+
+    private final Overflow              overflow;
+
+    private final WeakReference<Thread> owner;
+
+    private final Record[]              slots;
+
+    private final SharedBuffer          spill;
+
+    private final Record                spillRecord;
+
+    private final long                  threadId;
+
+    private String                      threadName;
+
+    private boolean                     spilling;
+
+    private volatile long               dropped;
+
+    private volatile long               overwritten;
+
+
+    /**
+     * @param owner A thread which produces records into this buffer
+     * @param capacity Number of slots, which is rounded up to a power of two
+     * @param overflow Behavior when the buffer is full
+     * @param spill A buffer shared with other threads to spill records into instead of dropping, or
+     *            {@code null}
+     */
+    RingBuffer(final Thread owner, final int capacity, final Overflow overflow, final SharedBuffer spill) {
+        final int size = ceilingPowerOfTwo(capacity);
+
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.owner = new WeakReference<>(owner);
+        this.threadId = owner.getId();
+        this.threadName = owner.getName();
+        this.slots = new Record[size];
+        this.spill = spill;
+        this.spillRecord = Objects.isNull(spill) ? null : new Record();
+
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new Record();
+        }
+    }
+
+
+    private static int ceilingPowerOfTwo(final int value) {
+        if (value <= 1) {
+            return 1;
+        }
+
+        return Integer.highestOneBit(value - 1) << 1;
+    }
+
+
+    /**
+     * @return A call stack of the owner thread, which MUST be used only from the owner thread
+     */
+    CallStack callStack() {
+        return this.callStack;
+    }
+
+
+    /**
+     * Claims the next slot to be written. MUST be called only from the owner thread, and followed
+     * by {@link #publish()} when the returned slot is not {@code null}.
+     * 
+     * @return A slot to be filled in, or {@code null} if the record is to be dropped
+     */
+    Record claim() {
+        final long current = this.tail.get();
+
+        while (current - this.head.get() >= this.slots.length) {
+            if (this.overflow == Overflow.DROP) {
+                if (Objects.nonNull(this.spill)) {
+                    this.spilling = true;
+                    return this.spillRecord;
+                }
+
+                this.dropped++;
+                return null;
+            }
+
+            final long oldest = this.head.get();
+
+            if (this.head.compareAndSet(oldest, oldest + 1)) {
+                this.overwritten++;
+            }
+        }
+
+        return this.slots[(int) (current & this.mask)];
+    }
+
+
+    /**
+     * Makes the slot returned by the last {@link #claim()} visible to the consumer, or copies it into
+     * the spill buffer if this buffer was full.
+     */
+    void publish() {
+        if (this.spilling) {
+            this.spilling = false;
+            this.spillRecord.threadId = this.threadId;
+
+            // Possibly stale, since the consumer thread refreshes it
+            this.spillRecord.threadName = this.threadName;
+
+            if (!this.spill.offer(this.spillRecord)) {
+                this.dropped++;
+            }
+
+            return;
+        }
+
+        this.tail.lazySet(this.tail.get() + 1);
+    }
+
+
+    /**
+     * Passes all published records to the specified action. MUST be called only from the consumer
+     * thread.
+     * 
+     * @param scratch A record to copy each slot into, which is passed to {@code action}
+     * @param action An action to be performed for each record
+     * @return Number of records consumed
+     */
+    int drain(final Record scratch, final Consumer<Record> action) {
+        int drained = 0;
+        long current;
+
+        refreshThreadName();
+        scratch.threadId = this.threadId;
+        scratch.threadName = this.threadName;
+
+        while ((current = this.head.get()) < this.tail.get()) {
+            scratch.copyFrom(this.slots[(int) (current & this.mask)]);
+
+            // The producer has overwritten this slot while copying if the CAS fails
+            if (this.head.compareAndSet(current, current + 1)) {
+                action.accept(scratch);
+                drained++;
+            }
+        }
+
+        return drained;
+    }
+
+
+    /**
+     * @return {@code true} if the owner thread has terminated and no records remain
+     */
+    boolean isAbandoned() {
+        final Thread thread = this.owner.get();
+
+        return (Objects.isNull(thread) || !thread.isAlive()) && this.head.get() == this.tail.get();
+    }
+
+
+    private void refreshThreadName() {
+        final Thread thread = this.owner.get();
+
+        // Threads may be renamed while running, for example by thread pools
+        if (Objects.nonNull(thread)) {
+            this.threadName = thread.getName();
+        }
+    }
+
+
+    /**
+     * @return Number of records published but not drained yet
+     */
+    long size() {
+        return Math.max(this.tail.get() - this.head.get(), 0);
+    }
+
+
+    /**
+     * @return Number of records dropped because this buffer was full
+     */
+    long dropped() {
+        return this.dropped;
+    }
+
+
+    /**
+     * @return Number of records overwritten before the consumer could read them
+     */
+    long overwritten() {
+        return this.overwritten;
+    }
+
+
+    /**
+     * Behavior of the producer when a {@link RingBuffer} is full.
+     */
+    enum Overflow {
+
+        /**
+         * Keeps the records in the buffer and discards the new one.
+         */
+        DROP,
+
+        /**
+         * Discards the oldest record in the buffer and stores the new one.
+         */
+        OVERWRITE;
+
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Decides in the prologue of instrumented methods whether the invocation is measured at all.
+ * 
+ * <p>An invocation is measured with probability 1/{@link Options#SAMPLING}, and at most
+ * {@link Options#RATELIMIT} invocations per method are measured per second, so that hot methods
+ * are throttled while rare ones are always captured. Counters are shared by all threads, so they
+ * are updated only after the random check, and are {@link LongAdder}s so as not to contend for a
+ * single cache line. The rate limit packs a window of one second and the number of invocations
+ * measured in it into one {@link AtomicLong}, which is not updated once the limit is reached.
+ */
+public final class Sampler {
+
+    /**
+     * Returned by {@link #begin(int)} when the invocation is not measured.
+     */
+    public static final long        NOT_SAMPLED  = Long.MIN_VALUE;
+
+    private static final int        PERIOD       = Math.max(Options.SAMPLING.value(), 1);
+
+    private static final int        LIMIT        = Math.max(Options.RATELIMIT.value(), 0);
+
+    private static final long       WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Object     LOCK         = new Object();
+
+    private static volatile State[] states       = new State[256];
+
+
+    private Sampler() {
+    }
+
+
+    /**
+     * Called from the prologue of instrumented methods.
+     * 
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @return A value of {@link System#nanoTime()}, or {@link #NOT_SAMPLED}
+     */
+    public static long begin(final int methodId) {
+        if (PERIOD > 1 && ThreadLocalRandom.current().nextInt(PERIOD) != 0) {
+            return NOT_SAMPLED;
+        }
+
+        final State aState = states[methodId];
+        aState.passed.increment();
+
+        final long now = System.nanoTime();
+
+        if (LIMIT > 0 && !aState.tryAcquire(windowOf(now))) {
+            return NOT_SAMPLED;
+        }
+
+        aState.sampled.increment();
+
+        return now;
+    }
+
+
+    /**
+     * @return {@code true} if any of sampling options is specified
+     */
+    static boolean isEnabled() {
+        return PERIOD > 1 || LIMIT > 0;
+    }
+
+
+    /**
+     * Prepares counters of a method before its instrumented code runs.
+     * 
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     */
+    static void register(final int methodId) {
+        synchronized (LOCK) {
+            State[] current = states;
+
+            if (methodId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(methodId + 1, current.length * 2));
+            }
+
+            // Counters survive retransformation of the method
+            if (Objects.isNull(current[methodId])) {
+                current[methodId] = new State();
+            }
+
+            states = current;
+        }
+    }
+
+
+    /**
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @return Estimated number of invocations of the method, including ones not measured
+     */
+    static long calls(final int methodId) {
+        final State[] current = states;
+
+        return (methodId < current.length && Objects.nonNull(current[methodId])) ? current[methodId].passed.sum() * PERIOD : 0;
+    }
+
+
+    /**
+     * @param methodId An ID of the method assigned by {@link MethodRegistry}
+     * @return Number of invocations of the method which were measured
+     */
+    static long sampled(final int methodId) {
+        final State[] current = states;
+
+        return (methodId < current.length && Objects.nonNull(current[methodId])) ? current[methodId].sampled.sum() : 0;
+    }
+
+
+    /**
+     * @return A description of sampling options, like <code>period=10,ratelimit=1000</code>
+     */
+    static String describe() {
+        return "period=" + PERIOD + ",ratelimit=" + LIMIT;
+    }
+
+
+    private static int windowOf(final long nanos) {
+        return (int) Math.floorDiv(nanos, WINDOW_NANOS);
+    }
+
+
+    private static final class State {
+
+        private final LongAdder  passed  = new LongAdder();
+
+        private final LongAdder  sampled = new LongAdder();
+
+        // A window in the upper half, and the number of invocations measured in it in the lower half
+        private final AtomicLong permits = new AtomicLong((long) windowOf(System.nanoTime()) << Integer.SIZE);
+
+
+        private boolean tryAcquire(final int currentWindow) {
+            while (true) {
+                final long current = this.permits.get();
+                final int window = (int) (current >> Integer.SIZE);
+                final long next;
+
+                // A thread which read the clock before the window moved on counts in the new one
+                if (currentWindow - window > 0) {
+                    next = (long) currentWindow << Integer.SIZE | 1;
+                } else if ((int) current >= LIMIT) {
+                    return false;
+                } else {
+                    next = current + 1;
+                }
+
+                if (this.permits.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * A bounded, lock-free buffer of {@link Record}s with multiple producers and a single consumer,
+ * which is the writer thread of {@link LogBroker}. It is used as the overflow tier absorbing
+ * bursts when {@link RingBuffer}s are full with {@link Options#SPILLSIZE}, and as the stripes
+ * shared by virtual threads, see {@link VirtualThreads}.
+ * 
+ * <p>Numeric fields of a record are stored in a fixed-width slot of a direct {@link ByteBuffer}
+ * allocated once, which never grows. Each slot also has a sequence number, which hands it over
+ * between producers and the consumer, and references to its thread name and exception class name,
+ * which are shared strings, in arrays on the heap.
+ * 
+ * <p>When the buffer is full, the record is rejected and counted.
+ */
+final class SharedBuffer {
+
+    static final int              SLOT_BYTES = Integer.BYTES * 4 + Long.BYTES * 6;
+
+    private final AtomicLong      tail       = new AtomicLong();
+
+    private final LongAdder       offered    = new LongAdder();
+
+    private final LongAdder       rejected   = new LongAdder();
+
+    private final ByteBuffer      region;
+
+    private final AtomicLongArray sequences;
+
+    private final String[]        threadNames;
+
+    private final String[]        thrown;
+
+    private final int             mask;
+
+    private volatile long         head;
+
+
+    /**
+     * @param capacity Number of slots, which is rounded up to a power of two
+     */
+    SharedBuffer(final int capacity) {
+        final int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+
+        this.mask = size - 1;
+        this.region = ByteBuffer.allocateDirect(size * SLOT_BYTES);
+        this.sequences = new AtomicLongArray(size);
+        this.threadNames = new String[size];
+        this.thrown = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            this.sequences.lazySet(i, i);
+        }
+    }
+
+
+    /**
+     * @param megabytes Maximum size of the off-heap region
+     * @return The largest power of two number of slots which fits in the region
+     */
+    static int capacityOf(final int megabytes) {
+        final long slots = Math.min(((long) megabytes << 20) / SLOT_BYTES, Integer.MAX_VALUE / SLOT_BYTES);
+
+        return Integer.highestOneBit((int) Math.max(slots, 1));
+    }
+
+
+    /**
+     * Copies a record into a free slot. MAY be called from any producer thread concurrently.
+     * 
+     * @param aRecord A record to be copied, including its thread
+     * @return {@code false} if the buffer is full and the record is to be dropped
+     */
+    boolean offer(final Record aRecord) {
+        final long position = claim();
+
+        if (position < 0) {
+            return false;
+        }
+
+        final int index = (int) (position & this.mask);
+        final int offset = index * SLOT_BYTES;
+
+        this.region.putInt(offset, aRecord.methodId);
+        this.region.putInt(offset + 4, aRecord.parentId);
+        this.region.putInt(offset + 8, aRecord.depth);
+        this.region.putLong(offset + 16, aRecord.threadId);
+        this.region.putLong(offset + 24, aRecord.begin);
+        this.region.putLong(offset + 32, aRecord.end);
+        this.region.putLong(offset + 40, aRecord.self);
+        this.region.putLong(offset + 48, aRecord.cpuTime);
+        this.region.putLong(offset + 56, aRecord.allocated);
+        this.threadNames[index] = aRecord.threadName;
+        this.thrown[index] = aRecord.thrown;
+
+        publish(index, position);
+
+        return true;
+    }
+
+
+    /**
+     * Copies a measurement without a parent into a free slot, without any {@link Record}. MAY be
+     * called from any producer thread concurrently.
+     * 
+     * @param threadId An ID of the thread which executed the method
+     * @param threadName A name of the thread
+     * @param methodId An ID of the measured method assigned by {@link MethodRegistry}
+     * @param begin A value of {@link System#nanoTime()} at the beginning of method execution
+     * @param end A value of {@link System#nanoTime()} at the end of method execution
+     * @param thrownName A class name of the exception thrown, or {@code null} if exited normally
+     * @return {@code false} if the buffer is full and the record is to be dropped
+     */
+    boolean offer(
+        final long threadId,
+        final String threadName,
+        final int methodId,
+        final long begin,
+        final long end,
+        final String thrownName) {
+        final long position = claim();
+
+        if (position < 0) {
+            return false;
+        }
+
+        final int index = (int) (position & this.mask);
+        final int offset = index * SLOT_BYTES;
+
+        this.region.putInt(offset, methodId);
+        this.region.putInt(offset + 4, -1);
+        this.region.putInt(offset + 8, 0);
+        this.region.putLong(offset + 16, threadId);
+        this.region.putLong(offset + 24, begin);
+        this.region.putLong(offset + 32, end);
+        this.region.putLong(offset + 40, end - begin);
+        this.region.putLong(offset + 48, 0);
+        this.region.putLong(offset + 56, 0);
+        this.threadNames[index] = threadName;
+        this.thrown[index] = thrownName;
+
+        publish(index, position);
+
+        return true;
+    }
+
+
+    /**
+     * Passes all published records to the specified action. MUST be called only from the consumer
+     * thread.
+     * 
+     * @param scratch A record to copy each slot into, which is passed to {@code action}
+     * @param action An action to be performed for each record
+     * @return Number of records consumed
+     */
+    int drain(final Record scratch, final Consumer<Record> action) {
+        int drained = 0;
+        long position = this.head;
+        int index;
+
+        while (this.sequences.get(index = (int) (position & this.mask)) == position + 1) {
+            final int offset = index * SLOT_BYTES;
+
+            scratch.methodId = this.region.getInt(offset);
+            scratch.parentId = this.region.getInt(offset + 4);
+            scratch.depth = this.region.getInt(offset + 8);
+            scratch.threadId = this.region.getLong(offset + 16);
+            scratch.begin = this.region.getLong(offset + 24);
+            scratch.end = this.region.getLong(offset + 32);
+            scratch.self = this.region.getLong(offset + 40);
+            scratch.cpuTime = this.region.getLong(offset + 48);
+            scratch.allocated = this.region.getLong(offset + 56);
+            scratch.threadName = this.threadNames[index];
+            scratch.thrown = this.thrown[index];
+
+            this.threadNames[index] = null;
+            this.thrown[index] = null;
+            this.sequences.lazySet(index, position + this.mask + 1);
+            this.head = ++position;
+
+            action.accept(scratch);
+            drained++;
+        }
+
+        return drained;
+    }
+
+
+    /**
+     * @return Number of records published but not drained yet
+     */
+    long size() {
+        return Math.max(this.tail.get() - this.head, 0);
+    }
+
+
+    /**
+     * @return Total number of records accepted
+     */
+    long offered() {
+        return this.offered.sum();
+    }
+
+
+    /**
+     * @return Total number of records rejected because the buffer was full
+     */
+    long rejected() {
+        return this.rejected.sum();
+    }
+
+
+    /**
+     * @return A position of a free slot claimed, or {@code -1} if the buffer is full
+     */
+    private long claim() {
+        long position;
+        int index;
+
+        do {
+            position = this.tail.get();
+            index = (int) (position & this.mask);
+
+            // The slot is not consumed yet since the last lap
+            if (this.sequences.get(index) < position) {
+                this.rejected.increment();
+                return -1;
+            }
+        } while (this.sequences.get(index) != position || !this.tail.compareAndSet(position, position + 1));
+
+        return position;
+    }
+
+
+    private void publish(final int index, final long position) {
+        this.sequences.lazySet(index, position + 1);
+        this.offered.increment();
+    }
+
+}
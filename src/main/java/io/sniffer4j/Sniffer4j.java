@@ -0,0 +1,144 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.Objects;
+
+
+/**
+ * Starts and stops measurement in a running JVM, see details for
+ * {@link Instrumentation#retransformClasses(Class...)}.
+ * 
+ * <p>Loaded classes in the measured packages are retransformed: {@link #start()} injects probes
+ * into them, and {@link #stop()} restores their original byte-codes, so that a stopped process
+ * runs with no overhead. Classes loaded while stopped are not instrumented until started again.
+ */
+public final class Sniffer4j {
+
+    private static final Object             LOCK = new Object();
+
+    private static Instrumentation          instrumentation;
+
+    private static Sniffer4jTransformer     transformer;
+
+
+    private Sniffer4j() {
+    }
+
+
+    /**
+     * Instruments loaded classes in the measured packages, and classes loaded afterward.
+     * 
+     * @throws IllegalStateException if the agent is not loaded
+     */
+    public static void start() {
+        switchTo(true);
+    }
+
+
+    /**
+     * Restores original byte-codes of instrumented classes. Records measured so far are still
+     * written.
+     * 
+     * @throws IllegalStateException if the agent is not loaded
+     */
+    public static void stop() {
+        switchTo(false);
+    }
+
+
+    /**
+     * @return {@code true} if classes are instrumented
+     */
+    public static boolean isRunning() {
+        synchronized (LOCK) {
+            return Objects.nonNull(transformer) && transformer.isEnabled();
+        }
+    }
+
+
+    /**
+     * @param anInstrumentation An instrumentation instance given to the agent
+     * @param enabled {@code true} to instrument classes loaded from now on
+     */
+    static void install(final Instrumentation anInstrumentation, final boolean enabled) {
+        synchronized (LOCK) {
+            instrumentation = anInstrumentation;
+            transformer = new Sniffer4jTransformer(enabled);
+
+            instrumentation.addTransformer(transformer, instrumentation.isRetransformClassesSupported());
+        }
+    }
+
+
+    /**
+     * @return {@code true} if installed by a previous load of the agent
+     */
+    static boolean isInstalled() {
+        synchronized (LOCK) {
+            return Objects.nonNull(transformer);
+        }
+    }
+
+
+    private static void switchTo(final boolean enabled) {
+        synchronized (LOCK) {
+            if (Objects.isNull(transformer)) {
+                throw new IllegalStateException("Sniffer4j agent is not loaded.");
+            }
+
+            if (transformer.isEnabled() == enabled) {
+                return;
+            }
+
+            transformer.setEnabled(enabled);
+            retransformLoadedClasses();
+        }
+    }
+
+
+    private static void retransformLoadedClasses() {
+        if (!instrumentation.isRetransformClassesSupported()) {
+            System.err.println("Retransforming classes is not supported, only classes loaded later are affected.");
+            return;
+        }
+
+        for (final Class<?> each : instrumentation.getAllLoadedClasses()) {
+            if (!instrumentation.isModifiableClass(each) || !transformer.isSubject(each.getName().replace('.', '/'))) {
+                continue;
+            }
+
+            // Retransforms one by one, so that a class failing does not affect the others
+            try {
+                instrumentation.retransformClasses(each);
+            } catch (final UnmodifiableClassException | RuntimeException | LinkageError cause) {
+                System.err.printf("Failed to retransform %s: %s%n", each.getName(), cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+/**
+ * Metrics of Sniffer4j itself, registered as <code>io.sniffer4j:type=Sniffer4j</code> on the
+ * platform MBean server, so that monitoring can alert when the agent is saturated or dropping
+ * records.
+ */
+public interface Sniffer4jMXBean {
+
+    /**
+     * @return Number of records waiting for the writer thread in per-thread ring buffers, shared
+     *         stripes of virtual threads and the spill buffer of <code>spillsize</code>
+     */
+    long getPendingRecords();
+
+
+    /**
+     * @return Number of records dropped because a ring buffer was full
+     */
+    long getDroppedRecords();
+
+
+    /**
+     * @return Number of records spilled off-heap because a ring buffer was full, with
+     *         <code>spillsize</code>
+     */
+    long getSpilledRecords();
+
+
+    /**
+     * @return Number of records overwritten before being written, with <code>overflow=overwrite</code>
+     */
+    long getOverwrittenRecords();
+
+
+    /**
+     * @return Number of records consumed by the writer thread, written or aggregated
+     */
+    long getConsumedRecords();
+
+
+    /**
+     * @return Milliseconds since the writer thread last found per-thread ring buffers, shared
+     *         stripes of virtual threads and the spill buffer all empty, or zero if no record is
+     *         waiting in any of them
+     */
+    long getWriterLagMillis();
+
+
+    /**
+     * @return Number of classes of which byte-codes were changed, including ones returned from the
+     *         cache, but not classes in which no method is selected
+     */
+    long getTransformedClasses();
+
+
+    /**
+     * @return Number of classes failed to be instrumented
+     */
+    long getTransformFailures();
+
+
+    /**
+     * @return Total milliseconds spent in instrumenting classes
+     */
+    long getTransformMillis();
+
+
+    /**
+     * @return Number of classes returned from <code>cachedir</code>
+     */
+    long getCacheHits();
+
+
+    /**
+     * @return Number of classes not found in <code>cachedir</code>
+     */
+    long getCacheMisses();
+
+
+    /**
+     * @return {@code true} if classes are instrumented, see {@link Sniffer4j#isRunning()}
+     */
+    boolean isRunning();
+
+
+    /**
+     * @see Sniffer4j#start()
+     */
+    void start();
+
+
+    /**
+     * @see Sniffer4j#stop()
+     */
+    void stop();
+
+}
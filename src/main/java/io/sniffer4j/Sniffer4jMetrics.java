@@ -0,0 +1,260 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Implements {@link Sniffer4jMXBean}. Counters updated by class loading threads are
+ * {@link LongAdder}s, and others are read from {@link LogBroker} and {@link TransformCache} only
+ * when the attribute is read.
+ */
+final class Sniffer4jMetrics implements Sniffer4jMXBean {
+
+    static final String     OBJECT_NAME        = "io.sniffer4j:type=Sniffer4j";
+
+    private final LongAdder transformedClasses = new LongAdder();
+
+    private final LongAdder transformFailures  = new LongAdder();
+
+    private final LongAdder transformNanos     = new LongAdder();
+
+
+    private Sniffer4jMetrics() {
+    }
+
+
+    /**
+     * @return A singleton instance
+     */
+    static Sniffer4jMetrics instance() {
+        return SingletonHolder.SINGLETON;
+    }
+
+
+    /**
+     * Registers this on the platform MBean server, unless {@link Options#JMX} is {@code false}.
+     * 
+     * <p>At JVM startup, registration is deferred by {@link Options#JMXDELAY} seconds on a daemon
+     * thread, because creating the platform MBean server in pre-main initializes
+     * {@link java.util.logging.LogManager} before the application, such as WildFly, installs its own.
+     * 
+     * @param atStartup {@code true} if called in pre-main
+     */
+    void register(final boolean atStartup) {
+        if (!Options.JMX.value().booleanValue()) {
+            return;
+        }
+
+        final long delay = TimeUnit.SECONDS.toMillis(Options.JMXDELAY.value().longValue());
+
+        if (!atStartup || delay <= 0) {
+            registerNow();
+            return;
+        }
+
+        final Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(delay);
+            } catch (@SuppressWarnings("unused") final InterruptedException ignored) {
+                return;
+            }
+
+            registerNow();
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * @param nanos Time taken by transforming a class
+     * @param failed {@code true} if failed
+     * @param changed {@code true} if the byte-codes were changed, that is, any method was selected
+     */
+    void recordTransform(final long nanos, final boolean failed, final boolean changed) {
+        this.transformNanos.add(nanos);
+
+        if (failed) {
+            this.transformFailures.increment();
+        } else if (changed) {
+            this.transformedClasses.increment();
+        }
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getPendingRecords()
+     */
+    @Override
+    public long getPendingRecords() {
+        return LogBroker.instance().pendingRecords();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getDroppedRecords()
+     */
+    @Override
+    public long getDroppedRecords() {
+        return LogBroker.instance().droppedRecords();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getSpilledRecords()
+     */
+    @Override
+    public long getSpilledRecords() {
+        return LogBroker.instance().spilledRecords();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getOverwrittenRecords()
+     */
+    @Override
+    public long getOverwrittenRecords() {
+        return LogBroker.instance().overwrittenRecords();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getConsumedRecords()
+     */
+    @Override
+    public long getConsumedRecords() {
+        return LogBroker.instance().consumedRecords();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getWriterLagMillis()
+     */
+    @Override
+    public long getWriterLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(LogBroker.instance().writerLagNanos());
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getTransformedClasses()
+     */
+    @Override
+    public long getTransformedClasses() {
+        return this.transformedClasses.sum();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getTransformFailures()
+     */
+    @Override
+    public long getTransformFailures() {
+        return this.transformFailures.sum();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getTransformMillis()
+     */
+    @Override
+    public long getTransformMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.transformNanos.sum());
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getCacheHits()
+     */
+    @Override
+    public long getCacheHits() {
+        final TransformCache cache = TransformCache.instance();
+
+        return Objects.isNull(cache) ? 0 : cache.hits();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#getCacheMisses()
+     */
+    @Override
+    public long getCacheMisses() {
+        final TransformCache cache = TransformCache.instance();
+
+        return Objects.isNull(cache) ? 0 : cache.misses();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#isRunning()
+     */
+    @Override
+    public boolean isRunning() {
+        return Sniffer4j.isRunning();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#start()
+     */
+    @Override
+    public void start() {
+        Sniffer4j.start();
+    }
+
+
+    /**
+     * @see io.sniffer4j.Sniffer4jMXBean#stop()
+     */
+    @Override
+    public void stop() {
+        Sniffer4j.stop();
+    }
+
+
+    private void registerNow() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (final JMException cause) {
+            System.err.println("Failed to register " + OBJECT_NAME + ": " + cause);
+        }
+    }
+
+
+    private static final class SingletonHolder {
+
+        private static final Sniffer4jMetrics SINGLETON = new Sniffer4jMetrics();
+
+    }
+
+}
@@ -29,13 +29,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.CtClass;
-import javassist.CtMethod;
+import javassist.CtBehavior;
+import javassist.CtConstructor;
+import javassist.Modifier;
 import javassist.NotFoundException;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.compiler.CompileError;
+import javassist.compiler.Javac;
 
 
 /**
@@ -43,7 +64,24 @@ import javassist.NotFoundException;
  */
 final class Sniffer4jTransformer implements ClassFileTransformer {
 
-    private static final ClassPool CLASS_POOL = ClassPool.getDefault();
+    private final ClassPools    classPools    = new ClassPools();
+
+    private final PackageFilter packageFilter = new PackageFilter(Options.PACKAGES.value(), Options.EXCLUDES.value());
+
+    private final MethodFilter  methodFilter  = new MethodFilter();
+
+    // Created only if selected, so that ASM is not needed otherwise
+    private final AsmWeaver     asmWeaver     = Options.WEAVER.value() == Weaver.ASM ? new AsmWeaver(this.methodFilter) : null;
+
+    private volatile boolean    enabled;
+
+
+    /**
+     * @param enabled {@code false} to leave classes as they are until {@link #setEnabled(boolean)}
+     */
+    Sniffer4jTransformer(final boolean enabled) {
+        this.enabled = enabled;
+    }
 
 
     /**
@@ -57,12 +95,60 @@ final class Sniffer4jTransformer implements ClassFileTransformer {
         final Class<?> classBeingRedefined,
         final ProtectionDomain protectionDomain,
         final byte[] classfileByteSequence) throws IllegalClassFormatException {
-        if (isNotSubjectToBeInjectedSniffer(fullyClassname)) {
+        // While disabled, retransformation restores the original byte-codes
+        if (!this.enabled || isNotSubjectToBeInjectedSniffer(fullyClassname)) {
             return null;
         }
 
+        final long begin = System.nanoTime();
+        boolean failed = true;
+        boolean changed = false;
+
+        try {
+            final byte[] transformed = transform(loader, classfileByteSequence);
+            failed = false;
+            changed = Objects.nonNull(transformed);
+
+            return transformed;
+        } finally {
+            Sniffer4jMetrics.instance().recordTransform(System.nanoTime() - begin, failed, changed);
+        }
+    }
+
+
+    private byte[] transform(final ClassLoader loader, final byte[] classfileByteSequence) throws IllegalClassFormatException {
+        final TransformCache cache = TransformCache.instance();
+        final Path cachePath = Objects.isNull(cache) ? null : cache.pathOf(classfileByteSequence);
+
+        if (Objects.nonNull(cache)) {
+            final byte[] cached = cache.get(cachePath);
+
+            if (Objects.nonNull(cached)) {
+                return cached == TransformCache.UNCHANGED ? null : cached;
+            }
+        }
+
+        final List<MethodRegistry.Entry> registered = new ArrayList<>();
+
         try (final InputStream byteStream = new ByteArrayInputStream(classfileByteSequence)) {
-            return injectSniffer(byteStream);
+            final byte[] instrumented;
+
+            if (Objects.nonNull(this.asmWeaver)) {
+                instrumented = this.asmWeaver.weave(classfileByteSequence, registered);
+            } else {
+                final ClassPool pool = this.classPools.acquire(loader);
+
+                synchronized (pool) {
+                    instrumented = injectSniffer(pool, byteStream, registered);
+                }
+            }
+
+            // Classes with no method selected are cached too, so as not to be parsed again
+            if (Objects.nonNull(cache)) {
+                cache.put(cachePath, Objects.isNull(instrumented) ? TransformCache.UNCHANGED : instrumented, registered);
+            }
+
+            return instrumented;
         } catch (final IOException | CannotCompileException | NotFoundException cause) {
             final IllegalClassFormatException e = new IllegalClassFormatException();
             e.initCause(cause);
@@ -73,42 +159,240 @@ final class Sniffer4jTransformer implements ClassFileTransformer {
     }
 
 
+    /**
+     * @return A description of everything which affects injected code except for the original
+     *         byte-codes, which keys {@link TransformCache} together with them
+     */
+    static String fingerprint() {
+        final URL location = Sniffer4jTransformer.class.getProtectionDomain().getCodeSource().getLocation();
+
+        return new StringJoiner(",")
+            .add("agent=" + location + "@" + lastModified(location))
+            .add("weaver=" + Options.WEAVER.value())
+            .add("calltree=" + Options.CALLTREE.value())
+            .add("resources=" + Options.RESOURCES.value())
+            .add("calibrate=" + Options.CALIBRATE.value())
+            .add("threshold=" + Options.THRESHOLD.value())
+            .add("sampler=" + Sampler.isEnabled())
+            .add(MethodFilter.describe())
+            .toString();
+    }
+
+
+    /**
+     * @return A modification time of the agent, or the current time if it is not a file, so that
+     *         byte-codes cached by another build of the agent are never reused
+     */
+    private static long lastModified(final URL location) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(location.toURI())).toMillis();
+        } catch (@SuppressWarnings("unused") final URISyntaxException | IOException | IllegalArgumentException | FileSystemNotFoundException ignored) {
+            return System.currentTimeMillis();
+        }
+    }
+
+
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+
+    void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * @param fullyClassname Name of class in the internal form, like <code>org/example/Foo</code>
+     * @return {@code true} if the class is in the measured packages
+     */
+    boolean isSubject(final String fullyClassname) {
+        return this.packageFilter.test(fullyClassname);
+    }
+
+
     private boolean isNotSubjectToBeInjectedSniffer(final String fullyClassname) {
-        return Options.PACKAGES.value().test(fullyClassname);
+        return !isSubject(fullyClassname);
     }
 
 
-    private byte[] injectSniffer(final InputStream byteStream) throws IOException, CannotCompileException, NotFoundException {
-        final CtClass ctClass = CLASS_POOL.makeClass(byteStream);
-        final String className = ctClass.getName();
+    private byte[] injectSniffer(final ClassPool pool, final InputStream byteStream, final List<MethodRegistry.Entry> registered)
+        throws IOException, CannotCompileException, NotFoundException {
+        final CtClass ctClass = pool.makeClass(byteStream);
 
-        final CtMethod[] ctMethods = ctClass.getDeclaredMethods();
+        // Detaches even if failed, so that the pool does not hold the class
+        try {
+            final String className = ctClass.getName();
 
-        for (final CtMethod aMethod : ctMethods) {
-            injectPerMethod(className, aMethod);
-        }
+            // Including constructors and the static initializer, unlike getDeclaredMethods()
+            final CtBehavior[] behaviors = ctClass.getDeclaredBehaviors();
 
-        return ctClass.toBytecode();
+            for (final CtBehavior aBehavior : behaviors) {
+                if (this.methodFilter.test(aBehavior)) {
+                    registered.add(injectPerMethod(pool, className, aBehavior));
+                }
+            }
+
+            // Leaves the class as it is
+            if (registered.isEmpty()) {
+                return null;
+            }
+
+            return ctClass.toBytecode();
+        } finally {
+            ctClass.detach();
+        }
     }
 
 
-    private void injectPerMethod(final String className, final CtMethod aMethod) throws CannotCompileException, NotFoundException {
-        final String methodName = aMethod.getName();
+    private MethodRegistry.Entry injectPerMethod(final ClassPool pool, final String className, final CtBehavior aMethod)
+        throws CannotCompileException, NotFoundException {
+        final MethodRegistry registry = MethodRegistry.instance();
+        final int methodId = registry.register(className, aMethod.getMethodInfo().getName(), aMethod.getSignature());
         final String beginVariableName = "beginSniffer";
         final String endVariableName = "endSniffer";
+        final boolean callTree = LogBroker.usesCallStack();
+
+        Sampler.register(methodId);
+
+        aMethod.addLocalVariable(beginVariableName, CtClass.longType);
+        aMethod.addLocalVariable(endVariableName,   CtClass.longType);
+
+        final String prologue = callTree
+            ? "io.sniffer4j.LogBroker.instance().enter(" + methodId + "," + beginVariableName + ");"
+            : "";
+
+        final String epilogue = epilogue(methodId, beginVariableName, endVariableName, callTree, "");
+        final String handler = epilogue(methodId, beginVariableName, endVariableName, callTree, ",$e");
+        final String guard = Sampler.isEnabled()
+            ? "if (" + beginVariableName + " != io.sniffer4j.Sampler.NOT_SAMPLED) "
+            : "";
+
+        // Added before the epilogue, so that the handler does not record an invocation again and
+        // rethrow when the epilogue itself throws
+        addCatch(aMethod, "{" + guard + "{" + handler + "} throw $e; }", pool.get("java.lang.Throwable"));
+        aMethod.insertAfter(guard + "{" + epilogue + "}");
+
+        // Inserted last, so that the handler does not cover the prologue, where the local variables
+        // are not assigned yet and the verifier rejects reading them
+        if (Sampler.isEnabled()) {
+            aMethod.insertBefore(beginVariableName + " = io.sniffer4j.Sampler.begin(" + methodId + ");"
+                + guard + "{" + prologue + "}");
+        } else {
+            aMethod.insertBefore(beginVariableName + " = System.nanoTime();" + prologue);
+        }
+
+        return registry.entry(methodId);
+    }
+
+
+    /**
+     * Works like {@link CtBehavior#addCatch(String, CtClass)}, except that the handler can read local
+     * variables added by {@link CtBehavior#addLocalVariable(String, CtClass)}. The handler covers
+     * the body, so code inserted by {@link CtBehavior#insertBefore(String)} or
+     * {@link CtBehavior#insertAfter(String)} later is not covered.
+     */
+    private static void addCatch(final CtBehavior aMethod, final String source, final CtClass exceptionType)
+        throws CannotCompileException {
+        final CtClass declaringClass = aMethod.getDeclaringClass();
+        final MethodInfo methodInfo = aMethod.getMethodInfo();
+        final ConstPool constPool = methodInfo.getConstPool();
+        final CodeAttribute code = methodInfo.getCodeAttribute();
+        final Bytecode handler = new Bytecode(constPool, code.getMaxStack(), code.getMaxLocals());
+        handler.setStackDepth(1);
+
+        try {
+            final Javac compiler = new Javac(handler, declaringClass);
+            compiler.recordParams(aMethod.getParameterTypes(), Modifier.isStatic(aMethod.getModifiers()));
+            compiler.recordLocalVariables(code, 0);
+            handler.addAstore(compiler.recordVariable(exceptionType, "$e"));
+            compiler.compileStmnt(source);
+
+            code.setMaxStack(Math.max(code.getMaxStack(), handler.getMaxStack()));
+            code.setMaxLocals(Math.max(code.getMaxLocals(), handler.getMaxLocals()));
+
+            final CodeIterator iterator = code.iterator();
+            final int bodyEnd = iterator.getCodeLength();
+            final int bodyBegin = startOfBody(aMethod, iterator);
+            final int handlerPosition = iterator.append(handler.get());
+
+            code.getExceptionTable().add(bodyBegin, bodyEnd, bodyEnd, constPool.addClassInfo(exceptionType));
+            iterator.append(handler.getExceptionTable(), handlerPosition);
+            methodInfo.rebuildStackMapIf6(declaringClass.getClassPool(), declaringClass.getClassFile2());
+        } catch (final NotFoundException | CompileError | BadBytecode cause) {
+            throw new CannotCompileException(cause);
+        }
+    }
+
+
+    /**
+     * A constructor is covered from after the call to <code>super()</code> or <code>this()</code>,
+     * before which <code>this</code> is not initialized.
+     */
+    private static int startOfBody(final CtBehavior aMethod, final CodeIterator iterator) throws BadBytecode {
+        if (!(aMethod instanceof CtConstructor) || ((CtConstructor) aMethod).isClassInitializer()) {
+            return 0;
+        }
+
+        iterator.skipConstructor();
+
+        return iterator.next();
+    }
 
-        aMethod.addLocalVariable(beginVariableName, CLASS_POOL.getCtClass("java.time.Instant"));
-        aMethod.addLocalVariable(endVariableName,   CLASS_POOL.getCtClass("java.time.Instant"));
 
-        aMethod.insertBefore(beginVariableName + " = java.time.Instant.now();");
-        aMethod.insertAfter(endVariableName    + " = java.time.Instant.now();");
-        
-        aMethod.insertAfter("io.sniffer4j.LogBroker.instance().submit("
-            + "Thread.currentThread(),"
-            + "\"" + className  + "\","
-            + "\"" + methodName + "\","
+    /**
+     * With the call tree, {@link LogBroker#exit(int, long, long, Throwable)} applies the threshold
+     * after maintaining the stack.
+     * 
+     * @param thrown An additional argument passing the exception, or an empty string
+     */
+    private String epilogue(
+        final int methodId,
+        final String beginVariableName,
+        final String endVariableName,
+        final boolean callTree,
+        final String thrown) {
+        return endVariableName + " = System.nanoTime();"
+            + (callTree
+                ? "io.sniffer4j.LogBroker.instance().exit("
+                : thresholdCondition(beginVariableName, endVariableName) + "io.sniffer4j.LogBroker.instance().submit(")
+            + methodId + ","
             + beginVariableName + ","
-            + endVariableName + ");");
+            + endVariableName
+            + thrown + ");";
+    }
+
+
+    /**
+     * Calls shorter than {@link Options#THRESHOLD} are discarded inline, so that they never reach
+     * {@link LogBroker}.
+     */
+    private String thresholdCondition(final String beginVariableName, final String endVariableName) {
+        final int threshold = Options.THRESHOLD.value();
+
+        if (threshold <= 0) {
+            return "";
+        }
+
+        return "if (" + endVariableName + " - " + beginVariableName + " >= " + TimeUnit.MILLISECONDS.toNanos(threshold) + "L) ";
+    }
+
+
+    /**
+     * Engines to instrument classes with.
+     */
+    enum Weaver {
+
+        /**
+         * Compiles source code of probes with Javassist.
+         */
+        JAVASSIST,
+
+        /**
+         * Emits minimal byte-codes calling {@link Probe} with ASM, see {@link AsmWeaver}.
+         */
+        ASM;
+
     }
 
 }
@@ -0,0 +1,187 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+/**
+ * Aggregates records into the same summaries as the aggregate mode, and writes them at the end of
+ * each log segment, so that the <code>summary</code> sink can be combined with a sink of raw
+ * records. Entries other than records are passed through.
+ */
+final class SummaryLogWriter implements LogWriter {
+
+    private final LogWriter delegate;
+
+    private Aggregator      aggregator;
+
+    private long            begin;
+
+    private boolean         received;
+
+
+    /**
+     * @param delegate A writer to write summaries into
+     */
+    SummaryLogWriter(final LogWriter delegate) {
+        this.delegate = delegate;
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeHeader(io.sniffer4j.LogBroker.Mode, boolean, boolean)
+     */
+    @Override
+    public void writeHeader(final LogBroker.Mode mode, final boolean callTree, final boolean resources) {
+        this.aggregator = new Aggregator(callTree, resources);
+        this.begin = System.nanoTime();
+        this.delegate.writeHeader(LogBroker.Mode.AGGREGATE, callTree, resources);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSampling(java.lang.String)
+     */
+    @Override
+    public void writeSampling(final String description) {
+        this.delegate.writeSampling(description);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeOverhead(long)
+     */
+    @Override
+    public void writeOverhead(final long nanos) {
+        this.delegate.writeOverhead(nanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeMethod(io.sniffer4j.MethodRegistry.Entry)
+     */
+    @Override
+    public void writeMethod(final MethodRegistry.Entry anEntry) {
+        this.delegate.writeMethod(anEntry);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeRecord(io.sniffer4j.Record)
+     */
+    @Override
+    public void writeRecord(final Record aRecord) {
+        this.aggregator.accept(aRecord);
+        this.received = true;
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeInterval(long, long)
+     */
+    @Override
+    public void writeInterval(final long intervalBegin, final long end) {
+        this.delegate.writeInterval(intervalBegin, end);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeStatistics(long[])
+     */
+    @Override
+    public void writeStatistics(final long[] summary) {
+        this.delegate.writeStatistics(summary);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeEdge(int, int, long, long)
+     */
+    @Override
+    public void writeEdge(final int parentId, final int childId, final long count, final long totalNanos) {
+        this.delegate.writeEdge(parentId, childId, count, totalNanos);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCalls(int, long, long)
+     */
+    @Override
+    public void writeCalls(final int methodId, final long calls, final long sampled) {
+        this.delegate.writeCalls(methodId, calls, sampled);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeCache(long, long)
+     */
+    @Override
+    public void writeCache(final long hits, final long misses) {
+        this.delegate.writeCache(hits, misses);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#writeSpill(long, long)
+     */
+    @Override
+    public void writeSpill(final long spilled, final long dropped) {
+        this.delegate.writeSpill(spilled, dropped);
+    }
+
+
+    /**
+     * Writes the summaries of records received since the header, before the trailer.
+     * 
+     * @see io.sniffer4j.LogWriter#writeTrailer(long, long)
+     */
+    @Override
+    public void writeTrailer(final long dropped, final long overwritten) {
+        if (this.received) {
+            this.delegate.writeInterval(this.begin, System.nanoTime());
+            this.aggregator.forEachNonEmpty(aStatistics -> this.delegate.writeStatistics(aStatistics.summary()));
+            this.aggregator.forEachEdge(anEdge -> this.delegate.writeEdge(anEdge.parentId, anEdge.childId, anEdge.count, anEdge.sum));
+        }
+
+        this.delegate.writeTrailer(dropped, overwritten);
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#flush()
+     */
+    @Override
+    public void flush() {
+        this.delegate.flush();
+    }
+
+
+    /**
+     * @see io.sniffer4j.LogWriter#close()
+     */
+    @Override
+    public void close() {
+        this.delegate.close();
+    }
+
+}
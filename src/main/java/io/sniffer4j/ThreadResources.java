@@ -0,0 +1,128 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+
+
+/**
+ * Reads CPU time and allocated bytes of the current thread, with {@link Options#RESOURCES}.
+ * 
+ * <p>They are read by {@link com.sun.management.ThreadMXBean}, which only HotSpot-based JVMs
+ * provide. Allocated bytes are read by <code>getCurrentThreadAllocatedBytes()</code> if the JVM
+ * has it (Java 14+), and otherwise by <code>getThreadAllocatedBytes(long)</code>, which allocates
+ * a few dozen bytes per call itself.
+ */
+final class ThreadResources {
+
+    private static final com.sun.management.ThreadMXBean BEAN              = newThreadMXBean();
+
+    private static final MethodHandle                    CURRENT_ALLOCATED = findCurrentThreadAllocatedBytes();
+
+
+    private ThreadResources() {
+    }
+
+
+    /**
+     * @return Nanoseconds of CPU time used by the current thread, or {@code 0} if not supported
+     */
+    static long cpuTime() {
+        return Objects.isNull(BEAN) ? 0 : BEAN.getCurrentThreadCpuTime();
+    }
+
+
+    /**
+     * @return Bytes allocated by the current thread so far, or {@code 0} if not supported
+     */
+    static long allocatedBytes() {
+        if (Objects.isNull(BEAN)) {
+            return 0;
+        }
+
+        if (Objects.nonNull(CURRENT_ALLOCATED)) {
+            try {
+                return (long) CURRENT_ALLOCATED.invokeExact();
+            } catch (final Throwable cause) {
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    /**
+     * @return {@code true} if CPU time and allocated bytes are measured
+     */
+    static boolean isSupported() {
+        return Objects.nonNull(BEAN);
+    }
+
+
+    private static MethodHandle findCurrentThreadAllocatedBytes() {
+        if (Objects.isNull(BEAN)) {
+            return null;
+        }
+
+        try {
+            return MethodHandles.publicLookup()
+                .findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes", MethodType.methodType(long.class))
+                .bindTo(BEAN);
+        } catch (@SuppressWarnings("unused") final ReflectiveOperationException ignored) {
+            return null;
+        }
+    }
+
+
+    private static com.sun.management.ThreadMXBean newThreadMXBean() {
+        if (!Options.RESOURCES.value().booleanValue()) {
+            return null;
+        }
+
+        try {
+            final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+            if (bean instanceof com.sun.management.ThreadMXBean && bean.isCurrentThreadCpuTimeSupported()) {
+                final com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) bean;
+                hotSpotBean.setThreadCpuTimeEnabled(true);
+                hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+
+                return hotSpotBean;
+            }
+        } catch (@SuppressWarnings("unused") final LinkageError | UnsupportedOperationException ignored) {
+            // Falls through
+        }
+
+        System.err.println("CPU time and allocated bytes are not supported by this JVM.");
+
+        return null;
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * An on-disk cache of instrumented byte-codes, keyed by SHA-256 of the original byte-codes and of
+ * {@link Sniffer4jTransformer#fingerprint()}, so that a warm start returns them without parsing.
+ * 
+ * <p>Method IDs are baked into the byte-codes, so each entry also holds the methods it registered,
+ * and IDs are reserved in blocks through a counter file shared by all runs, which leaves them
+ * sparse. When the counter exceeds {@link #MAX_IDS}, the cache is wiped at the next start, so that
+ * arrays indexed by method ID stay small. Entries are evicted in order of
+ * last use when the cache exceeds {@link Options#CACHESIZE} megabytes.
+ */
+final class TransformCache {
+
+    /**
+     * Returned by {@link #get(Path)} for a class of which no method is instrumented.
+     */
+    static final byte[]         UNCHANGED   = new byte[0];
+
+    private static final int    MAGIC       = 0x534E4643;
+
+    // Arrays indexed by method ID, like those of Aggregator and Sampler, grow up to this length
+    private static final int    MAX_IDS     = 1 << 16;
+
+    private static final String IDS_FILE    = "ids";
+
+    private static final String SUFFIX      = ".class";
+
+    private final Path          directory;
+
+    private final long          maxBytes;
+
+    private final byte[]        fingerprint;
+
+    private final AtomicLong    totalBytes  = new AtomicLong();
+
+    private final LongAdder     hits        = new LongAdder();
+
+    private final LongAdder     misses      = new LongAdder();
+
+    private final Object        evictionLock = new Object();
+
+    private final AtomicBoolean failureReported = new AtomicBoolean();
+
+
+    private TransformCache(final Path directory, final long maxBytes, final String fingerprint) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.fingerprint = fingerprint.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @return A singleton instance, or {@code null} if {@link Options#CACHEDIR} is not specified
+     */
+    static TransformCache instance() {
+        return SingletonHolder.SINGLETON;
+    }
+
+
+    /**
+     * Returns cached byte-codes, and registers the methods instrumented in them.
+     * 
+     * @param path A path returned by {@link #pathOf(byte[])} for the original byte-codes
+     * @return Instrumented byte-codes, {@link #UNCHANGED}, or {@code null} if not cached
+     */
+    byte[] get(final Path path) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC) {
+                return miss();
+            }
+
+            final MethodRegistry.Entry[] entries = new MethodRegistry.Entry[input.readInt()];
+
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new MethodRegistry.Entry(input.readInt(), input.readUTF(), input.readUTF(), input.readUTF());
+            }
+
+            final byte[] instrumented = new byte[input.readInt()];
+            input.readFully(instrumented);
+
+            // Conflicts only if another run wiped the cache and reserved the same IDs meanwhile
+            if (!MethodRegistry.instance().restore(entries)) {
+                return miss();
+            }
+
+            for (final MethodRegistry.Entry each : entries) {
+                Sampler.register(each.id);
+            }
+
+            path.toFile().setLastModified(System.currentTimeMillis());
+            this.hits.increment();
+
+            // Entries written by older versions hold the original byte-codes instead
+            return entries.length == 0 ? UNCHANGED : instrumented;
+        } catch (@SuppressWarnings("unused") final IOException ignored) {
+            // Not cached yet, or broken like written partially, which is simply overwritten
+            return miss();
+        }
+    }
+
+
+    /**
+     * Caches byte-codes. A failure, like a full disk, is reported once and otherwise ignored, so
+     * that the class is still instrumented.
+     * 
+     * @param path A path returned by {@link #pathOf(byte[])} for the original byte-codes
+     * @param instrumented Instrumented byte-codes, or {@link #UNCHANGED}
+     * @param entries Methods registered by the instrumentation
+     */
+    void put(final Path path, final byte[] instrumented, final List<MethodRegistry.Entry> entries) {
+        try {
+            final Path temporary = Files.createTempFile(this.directory, null, ".tmp");
+            final long size;
+
+            // Deletes a partially written file, and nothing after the move
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(entries.size());
+
+                    for (final MethodRegistry.Entry each : entries) {
+                        output.writeInt(each.id);
+                        output.writeUTF(each.className);
+                        output.writeUTF(each.methodName);
+                        output.writeUTF(each.descriptor);
+                    }
+
+                    output.writeInt(instrumented.length);
+                    output.write(instrumented);
+                }
+
+                size = Files.size(temporary);
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+
+            if (this.totalBytes.addAndGet(size) > this.maxBytes) {
+                evict();
+            }
+        } catch (final IOException | UncheckedIOException cause) {
+            if (this.failureReported.compareAndSet(false, true)) {
+                System.err.println("Failed to write " + this.directory + ", and no more failures are reported: " + cause);
+            }
+        }
+    }
+
+
+    /**
+     * @return Number of classes returned from cache
+     */
+    long hits() {
+        return this.hits.sum();
+    }
+
+
+    /**
+     * @return Number of classes not found in cache
+     */
+    long misses() {
+        return this.misses.sum();
+    }
+
+
+    /**
+     * @param classfileByteSequence Original byte-codes
+     * @return A path of the entry, which is computed once per class and passed to both
+     *         {@link #get(Path)} and {@link #put(Path, byte[], List)}
+     */
+    Path pathOf(final byte[] classfileByteSequence) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.fingerprint);
+
+            final StringBuilder name = new StringBuilder(64 + SUFFIX.length());
+
+            for (final byte each : digest.digest(classfileByteSequence)) {
+                name.append(Character.forDigit((each >> 4) & 0xF, 16)).append(Character.forDigit(each & 0xF, 16));
+            }
+
+            return this.directory.resolve(name.append(SUFFIX).toString());
+        } catch (final NoSuchAlgorithmException cause) {
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    private static TransformCache open(final Path directory) {
+        final TransformCache cache = new TransformCache(directory,
+            Options.CACHESIZE.value().longValue() * 1024 * 1024, Sniffer4jTransformer.fingerprint());
+
+        try {
+            Files.createDirectories(directory);
+
+            if (cache.readIds() > MAX_IDS) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (final Path each : files.collect(Collectors.toList())) {
+                        Files.deleteIfExists(each);
+                    }
+                }
+            }
+
+            try (Stream<Path> files = cache.entries()) {
+                cache.totalBytes.set(files.mapToLong(each -> each.toFile().length()).sum());
+            }
+        } catch (final IOException cause) {
+            throw new UncheckedIOException(cause);
+        }
+
+        MethodRegistry.instance().allocateBlocksWith(cache::reserveIds);
+
+        return cache;
+    }
+
+
+    private Stream<Path> entries() throws IOException {
+        return Files.list(this.directory).filter(each -> each.getFileName().toString().endsWith(SUFFIX));
+    }
+
+
+    private void evict() throws IOException {
+        synchronized (this.evictionLock) {
+            if (this.totalBytes.get() <= this.maxBytes) {
+                return;
+            }
+
+            final File[] files;
+
+            try (Stream<Path> entries = entries()) {
+                files = entries.map(Path::toFile).toArray(File[]::new);
+            }
+
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+            // Evicts down to 90%, so that eviction does not run on every put
+            final long target = this.maxBytes / 10 * 9;
+
+            for (final File each : files) {
+                if (this.totalBytes.get() <= target) {
+                    break;
+                }
+
+                final long size = each.length();
+
+                if (each.delete()) {
+                    this.totalBytes.addAndGet(-size);
+                }
+            }
+        }
+    }
+
+
+    private byte[] miss() {
+        this.misses.increment();
+
+        return null;
+    }
+
+
+    private int readIds() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(this.directory.resolve(IDS_FILE).toFile(), "rw")) {
+            final FileLock lock = file.getChannel().lock();
+
+            try {
+                return file.length() < Integer.BYTES ? 0 : file.readInt();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+
+    /**
+     * Reserves IDs under a file lock, so that concurrent runs sharing the cache do not clash.
+     */
+    private int reserveIds() {
+        try (RandomAccessFile file = new RandomAccessFile(this.directory.resolve(IDS_FILE).toFile(), "rw")) {
+            final FileLock lock = file.getChannel().lock();
+
+            try {
+                final int first = file.length() < Integer.BYTES ? 0 : file.readInt();
+
+                file.seek(0);
+                file.writeInt(first + MethodRegistry.BLOCK_SIZE);
+
+                return first;
+            } finally {
+                lock.release();
+            }
+        } catch (final IOException cause) {
+            throw new UncheckedIOException(cause);
+        }
+    }
+
+
+    private static final class SingletonHolder {
+
+        private static final TransformCache SINGLETON = Options.CACHEDIR.value().map(TransformCache::open).orElse(null);
+
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2018 Yusuke TAKEI.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.sniffer4j;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+
+
+/**
+ * Detects virtual threads of Java 21+, while Sniffer4j itself runs on Java 8+.
+ * 
+ * <p>Records of virtual threads are not buffered per thread, since there may be millions of them,
+ * but in a fixed number of {@link SharedBuffer}s, as many as the carrier threads which can run them
+ * at once. A stripe is selected by the ID of the virtual thread, since its carrier is not exposed by
+ * any public API. Virtual threads do not have call stacks either, so their records have no parent
+ * even with {@link Options#CALLTREE}, and no CPU time nor allocated bytes.
+ */
+final class VirtualThreads {
+
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+
+    private VirtualThreads() {
+    }
+
+
+    /**
+     * @return {@code true} if this JVM has virtual threads
+     */
+    static boolean isSupported() {
+        return Objects.nonNull(IS_VIRTUAL);
+    }
+
+
+    /**
+     * @param thread A thread
+     * @return {@code true} if the thread is a virtual thread
+     */
+    static boolean isVirtual(final Thread thread) {
+        if (Objects.isNull(IS_VIRTUAL)) {
+            return false;
+        }
+
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (final Throwable cause) {
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    /**
+     * @return Number of stripes for virtual threads, which is the parallelism of their scheduler
+     *         rounded up to a power of two
+     */
+    static int stripes() {
+        final int parallelism = Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+
+        return parallelism <= 1 ? 1 : Integer.highestOneBit(parallelism - 1) << 1;
+    }
+
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (@SuppressWarnings("unused") final ReflectiveOperationException ignored) {
+            return null;
+        }
+    }
+
+}